@@ -0,0 +1,87 @@
+package com.aldaviva.microblog_favorites;
+
+import com.aldaviva.microblog_favorites.benchmark.Fixtures;
+import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomObjectMapperProvider;
+import com.aldaviva.microblog_favorites.jpeg.SplicedJpeg;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FavoritesDownloaderBenchmark {
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public SplicedJpeg addMetadataToImage(final Screenshot screenshot) {
+		return FavoritesDownloader.addMetadataToImage(screenshot.image, screenshot.favorite);
+	}
+
+	/**
+	 * Every fixture post body, most of which are full of emoji, CJK text, and accented letters.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void normalizeCharacterSet(final PostBodies postBodies, final Blackhole blackhole) {
+		for (final String body : postBodies.bodies) {
+			blackhole.consume(FavoritesDownloader.normalizeCharacterSet(body, StandardCharsets.ISO_8859_1));
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Screenshot {
+
+		@Param({ "1", "3", "6" })
+		public int screenshotMegabytes;
+
+		byte[] image;
+		FavoritePost favorite;
+
+		@Setup
+		public void setUp() throws IOException {
+			image = Fixtures.screenshot(screenshotMegabytes);
+
+			final List<String> bodies = CustomObjectMapperProvider.OBJECT_MAPPER.readValue(Fixtures.read("post-bodies.json"), new TypeReference<List<String>>() {
+			});
+			favorite = new FavoritePost();
+			favorite.setId("1879990000000000000");
+			favorite.setAuthorName("Zoë García 🌸✨");
+			favorite.setAuthorHandle("zoe_garcia");
+			favorite.setDate(Instant.parse("2025-01-16T19:15:41Z"));
+			favorite.setBody(bodies.get(0));
+			favorite.setUrl(URI.create("https://x.com/zoe_garcia/status/1879990000000000000"));
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class PostBodies {
+
+		List<String> bodies;
+
+		@Setup
+		public void setUp() throws IOException {
+			bodies = CustomObjectMapperProvider.OBJECT_MAPPER.readValue(Fixtures.read("post-bodies.json"), new TypeReference<List<String>>() {
+			});
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+package com.aldaviva.microblog_favorites;
+
+import com.aldaviva.microblog_favorites.PostIdSet.Encoding;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>{@link PostIdSet} against the {@code HashSet<String>} it replaced, with an archive of a million saved posts. Filtering a page of favorites mostly
+ * looks up new IDs, which the Bloom filter should reject without touching the table, and at the end of a run, IDs that are already saved. Times are per
+ * ID, and each lookup copies the ID first, since listed IDs are parsed from a new response each time, so {@link String#hashCode()} isn't cached
+ * yet.</p>
+ *
+ * <p>The heap that each set retains is printed when the benchmark is set up, since JMH doesn't measure it. Adding the IDs is measured too, since that's
+ * how each run loads the saved post index.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PostIdSetBenchmark {
+
+	private static final int SAVED_POSTS = 1_000_000;
+
+	@Param({ "DECIMAL", "TID" })
+	public Encoding encoding;
+
+	private String[] savedIds;
+	private String[] newIds;
+	private PostIdSet postIdSet;
+	private Set<String> stringSet;
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(42);
+		savedIds = new String[SAVED_POSTS];
+		newIds = new String[SAVED_POSTS];
+		long id = encoding == Encoding.TID ? 1_700_000_000_000_000L << 10 : 1_500_000_000_000_000_000L; // TIDs are microseconds with a 10-bit clock ID
+		for (int i = 0; i < SAVED_POSTS; i++) {
+			id += 1 + random.nextInt(1 << 22);
+			savedIds[i] = format(id);
+		}
+		for (int i = 0; i < SAVED_POSTS; i++) {
+			id += 1 + random.nextInt(1 << 22);
+			newIds[i] = format(id);
+		}
+
+		postIdSet = createPostIdSet();
+		stringSet = createStringSet();
+
+		System.out.printf("%n%,d %s IDs retain %,d KB in a PostIdSet and %,d KB in a HashSet<String>%n", SAVED_POSTS, encoding,
+		    retainedBytes(this::createPostIdSet) / 1024, retainedBytes(this::createStringSet) / 1024);
+	}
+
+	private String format(final long id) {
+		if (encoding == Encoding.TID) {
+			final String alphabet = "234567abcdefghijklmnopqrstuvwxyz";
+			final char[] tid = new char[13];
+			long remaining = id;
+			for (int i = tid.length - 1; i >= 0; i--) {
+				tid[i] = alphabet.charAt((int) (remaining & 31));
+				remaining >>>= 5;
+			}
+			return new String(tid);
+		} else {
+			return Long.toString(id);
+		}
+	}
+
+	private PostIdSet createPostIdSet() {
+		final PostIdSet set = new PostIdSet(encoding);
+		for (final String savedId : savedIds) {
+			set.add(savedId);
+		}
+		return set;
+	}
+
+	private Set<String> createStringSet() {
+		final Set<String> set = new HashSet<>();
+		for (final String savedId : savedIds) {
+			set.add(new String(savedId)); // like the saved post index, which reads each ID into its own string
+		}
+		return set;
+	}
+
+	/**
+	 * The increase in the heap that's still in use after a full garbage collection, while the built object is still reachable.
+	 */
+	private static long retainedBytes(final Supplier<Object> builder) {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		collectGarbage();
+		final long before = memory.getHeapMemoryUsage().getUsed();
+		final Object built = builder.get();
+		collectGarbage();
+		final long after = memory.getHeapMemoryUsage().getUsed();
+		Reference.reachabilityFence(built);
+		return after - before;
+	}
+
+	private static void collectGarbage() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVED_POSTS)
+	public int postIdSetFilterNewIds() {
+		int saved = 0;
+		for (final String id : newIds) {
+			if (postIdSet.contains(new String(id))) {
+				saved++;
+			}
+		}
+		return saved;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVED_POSTS)
+	public int hashSetFilterNewIds() {
+		int saved = 0;
+		for (final String id : newIds) {
+			if (stringSet.contains(new String(id))) {
+				saved++;
+			}
+		}
+		return saved;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVED_POSTS)
+	public int postIdSetFilterSavedIds() {
+		int saved = 0;
+		for (final String id : savedIds) {
+			if (postIdSet.contains(new String(id))) {
+				saved++;
+			}
+		}
+		return saved;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVED_POSTS)
+	public int hashSetFilterSavedIds() {
+		int saved = 0;
+		for (final String id : savedIds) {
+			if (stringSet.contains(new String(id))) {
+				saved++;
+			}
+		}
+		return saved;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVED_POSTS)
+	public PostIdSet postIdSetAdd() {
+		return createPostIdSet();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVED_POSTS)
+	public Set<String> hashSetAdd() {
+		return createStringSet();
+	}
+
+}
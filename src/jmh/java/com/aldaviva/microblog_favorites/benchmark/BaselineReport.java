@@ -0,0 +1,173 @@
+package com.aldaviva.microblog_favorites.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * <p>Compares a JMH run with an earlier baseline run, both saved with {@code -rf json}, and prints the change in time and allocation of every
+ * benchmark.</p>
+ *
+ * <p>A benchmark counts as a regression when it got slower by more than {@code -DregressionThresholdPercent} (5% by default) and the confidence intervals
+ * of the two runs don't overlap, or when it allocates that much more per operation. Allocation is only compared if both runs used {@code -prof gc}. If
+ * there are any regressions, this exits with status 1.</p>
+ *
+ * <p>If the baseline file doesn't exist yet, the results are copied there to become the baseline for later runs. Baselines are only comparable on the
+ * machine that recorded them, so they aren't checked in.</p>
+ *
+ * <p>Usage: {@code BaselineReport <baseline.json> <results.json>}</p>
+ */
+public final class BaselineReport {
+
+	private static final int REGRESSION_THRESHOLD_PERCENT = Integer.getInteger("regressionThresholdPercent", 5);
+	private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+	private static final double MIN_ALLOCATION_CHANGE_BYTES = 16; // ignore a stray object or two of noise from the profiler
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private BaselineReport() {
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: BaselineReport <baseline.json> <results.json>");
+			System.exit(2);
+		}
+		final Path baselineFile = Paths.get(args[0]);
+		final Path resultsFile = Paths.get(args[1]);
+
+		if (!Files.exists(baselineFile)) {
+			Files.copy(resultsFile, baselineFile, StandardCopyOption.REPLACE_EXISTING);
+			System.out.println("No baseline found, saved these results as the baseline in " + baselineFile.toAbsolutePath());
+			return;
+		}
+
+		final Map<String, JsonNode> baselineRuns = readRuns(baselineFile);
+		final Map<String, JsonNode> currentRuns = readRuns(resultsFile);
+
+		int regressions = 0;
+		System.out.println(String.format("%-72s %18s %18s %8s %14s %14s %8s  %s", "Benchmark", "Baseline", "Current", "Change", "Baseline B/op", "Current B/op",
+		    "Change", "Verdict"));
+		for (final Entry<String, JsonNode> currentRun : currentRuns.entrySet()) {
+			final JsonNode baselineRun = baselineRuns.get(currentRun.getKey());
+			final JsonNode currentTime = currentRun.getValue().path("primaryMetric");
+			final JsonNode currentAllocation = getSecondaryMetric(currentRun.getValue(), ALLOCATION_METRIC);
+			if (baselineRun == null) {
+				System.out.println(String.format("%-72s %18s %18s %8s %14s %14s %8s  %s", currentRun.getKey(), "-", formatScore(currentTime), "-", "-",
+				    formatAllocation(currentAllocation), "-", "new"));
+				continue;
+			}
+
+			final JsonNode baselineTime = baselineRun.path("primaryMetric");
+			final JsonNode baselineAllocation = getSecondaryMetric(baselineRun, ALLOCATION_METRIC);
+			final boolean isHigherBetter = "thrpt".equals(currentRun.getValue().path("mode").textValue());
+			final double timeChange = percentChange(baselineTime.path("score").doubleValue(), currentTime.path("score").doubleValue());
+			final boolean isSlower = (isHigherBetter ? -timeChange : timeChange) > REGRESSION_THRESHOLD_PERCENT && !confidenceIntervalsOverlap(baselineTime, currentTime);
+			final boolean isFaster = (isHigherBetter ? timeChange : -timeChange) > REGRESSION_THRESHOLD_PERCENT && !confidenceIntervalsOverlap(baselineTime, currentTime);
+
+			double allocationChange = Double.NaN;
+			boolean allocatesMore = false;
+			if (baselineAllocation != null && currentAllocation != null) {
+				final double baselineBytes = baselineAllocation.path("score").doubleValue();
+				final double currentBytes = currentAllocation.path("score").doubleValue();
+				allocationChange = percentChange(baselineBytes, currentBytes);
+				allocatesMore = allocationChange > REGRESSION_THRESHOLD_PERCENT && currentBytes - baselineBytes > MIN_ALLOCATION_CHANGE_BYTES;
+			}
+
+			final String verdict;
+			if (isSlower || allocatesMore) {
+				regressions++;
+				verdict = "REGRESSION" + (isSlower ? " (time)" : "") + (allocatesMore ? " (allocation)" : "");
+			} else if (isFaster) {
+				verdict = "faster";
+			} else {
+				verdict = "same";
+			}
+
+			System.out.println(String.format("%-72s %18s %18s %+7.1f%% %14s %14s %8s  %s", currentRun.getKey(), formatScore(baselineTime),
+			    formatScore(currentTime), timeChange, formatAllocation(baselineAllocation), formatAllocation(currentAllocation),
+			    Double.isNaN(allocationChange) ? "-" : String.format("%+.1f%%", allocationChange), verdict));
+		}
+
+		for (final String removedRun : baselineRuns.keySet()) {
+			if (!currentRuns.containsKey(removedRun)) {
+				System.out.println(String.format("%-72s %s", removedRun, "not in current results"));
+			}
+		}
+
+		System.out.println();
+		System.out.println(regressions == 0 ? "No regressions compared to " + baselineFile : regressions + " regressions compared to " + baselineFile);
+		if (regressions > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return each run in the results file, keyed by its benchmark method name and parameters, like {@code MainBenchmark.titleCase(input=abc)}
+	 */
+	private static Map<String, JsonNode> readRuns(final Path resultsFile) throws IOException {
+		final Map<String, JsonNode> runs = new LinkedHashMap<>();
+		for (final JsonNode run : OBJECT_MAPPER.readTree(resultsFile.toFile())) {
+			final String benchmark = run.path("benchmark").textValue();
+			final StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+			final JsonNode params = run.path("params");
+			if (params.size() > 0) {
+				key.append('(');
+				for (final Iterator<Entry<String, JsonNode>> paramIterator = params.fields(); paramIterator.hasNext();) {
+					final Entry<String, JsonNode> param = paramIterator.next();
+					key.append(param.getKey()).append('=').append(abbreviate(param.getValue().asText()));
+					if (paramIterator.hasNext()) {
+						key.append(", ");
+					}
+				}
+				key.append(')');
+			}
+			runs.put(key.toString(), run);
+		}
+		return runs;
+	}
+
+	/**
+	 * Older versions of JMH prefix profiler metric names with a middle dot, like {@code ·gc.alloc.rate.norm}.
+	 */
+	private static JsonNode getSecondaryMetric(final JsonNode run, final String name) {
+		for (final Iterator<Entry<String, JsonNode>> metrics = run.path("secondaryMetrics").fields(); metrics.hasNext();) {
+			final Entry<String, JsonNode> metric = metrics.next();
+			if (metric.getKey().equals(name) || metric.getKey().equals("·" + name)) {
+				return metric.getValue();
+			}
+		}
+		return null;
+	}
+
+	private static boolean confidenceIntervalsOverlap(final JsonNode baseline, final JsonNode current) {
+		final JsonNode baselineInterval = baseline.path("scoreConfidence");
+		final JsonNode currentInterval = current.path("scoreConfidence");
+		return baselineInterval.path(0).doubleValue() <= currentInterval.path(1).doubleValue()
+		    && currentInterval.path(0).doubleValue() <= baselineInterval.path(1).doubleValue();
+	}
+
+	private static double percentChange(final double baseline, final double current) {
+		return baseline == 0 ? (current == 0 ? 0 : Double.POSITIVE_INFINITY) : (current - baseline) / baseline * 100;
+	}
+
+	private static String formatScore(final JsonNode metric) {
+		return String.format("%.3f %s", metric.path("score").doubleValue(), metric.path("scoreUnit").asText());
+	}
+
+	private static String formatAllocation(final JsonNode metric) {
+		return metric == null ? "-" : String.format("%.0f", metric.path("score").doubleValue());
+	}
+
+	private static String abbreviate(final String param) {
+		return param.length() > 20 ? param.substring(0, 17) + "..." : param;
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.aldaviva.microblog_favorites.benchmark;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Random;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * <p>Inputs for the benchmarks.</p>
+ *
+ * <p>API responses are checked in under {@code src/jmh/resources/fixtures}. They have the same structure and size as real responses, with made-up
+ * accounts and text.</p>
+ *
+ * <p>Screenshots are generated instead of checked in, since they are several megabytes each. They are drawn the same way every time, as a dark post
+ * with bars of "text" above a grainy photo, and encoded like Chromium's screenshots: baseline JPEG at quality 80 with only a JFIF segment.</p>
+ */
+public final class Fixtures {
+
+	private static final int SCREENSHOT_WIDTH = 1200;
+	private static final int HEADER_HEIGHT = 400;
+
+	private Fixtures() {
+	}
+
+	public static byte[] read(final String name) {
+		try (InputStream inputStream = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+			if (inputStream == null) {
+				throw new IllegalArgumentException("No fixture named " + name);
+			}
+			return inputStream.readAllBytes();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static String readString(final String name) {
+		return new String(read(name), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return a JPEG screenshot which is within a few percent of the given size
+	 */
+	public static byte[] screenshot(final int megabytes) {
+		final long targetBytes = megabytes * 1024L * 1024L;
+		final int sampleHeight = 600;
+		final double bytesPerPhotoRow = (double) (encodeJpeg(drawScreenshot(sampleHeight)).length - encodeJpeg(drawScreenshot(0)).length) / sampleHeight;
+		final int photoHeight = (int) Math.max(1, (targetBytes - encodeJpeg(drawScreenshot(0)).length) / bytesPerPhotoRow);
+		return encodeJpeg(drawScreenshot(photoHeight));
+	}
+
+	private static BufferedImage drawScreenshot(final int photoHeight) {
+		final Random random = new Random(photoHeight);
+		final BufferedImage image = new BufferedImage(SCREENSHOT_WIDTH, HEADER_HEIGHT + photoHeight, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Color.BLACK);
+		graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+
+		// avatar, name, and lines of text
+		graphics.setColor(new Color(0x1d9bf0));
+		graphics.fillOval(32, 32, 96, 96);
+		graphics.setColor(new Color(0xe7e9ea));
+		for (int y = 160; y < HEADER_HEIGHT - 40; y += 44) {
+			for (int x = 32; x < SCREENSHOT_WIDTH - 100;) {
+				final int wordWidth = 20 + random.nextInt(90);
+				graphics.fillRect(x, y, wordWidth, 24);
+				x += wordWidth + 14;
+			}
+		}
+		graphics.dispose();
+
+		// photo: smooth gradients with sensor noise, which compresses about as well as a real photo
+		for (int y = 0; y < photoHeight; y++) {
+			for (int x = 0; x < SCREENSHOT_WIDTH; x++) {
+				final int noise = random.nextInt(48) - 24;
+				final int red = clamp((x * 255 / SCREENSHOT_WIDTH) + noise);
+				final int green = clamp((y * 255 / Math.max(photoHeight, 1)) + noise);
+				final int blue = clamp(128 + ((x + y) % 256 - 128) / 2 + noise);
+				image.setRGB(x, HEADER_HEIGHT + y, (red << 16) | (green << 8) | blue);
+			}
+		}
+		return image;
+	}
+
+	private static int clamp(final int channel) {
+		return Math.max(0, Math.min(255, channel));
+	}
+
+	private static byte[] encodeJpeg(final BufferedImage image) {
+		final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		final ImageWriter writer = writers.next();
+		final ImageWriteParam writeParam = writer.getDefaultWriteParam();
+		writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		writeParam.setCompressionQuality(0.8f);
+
+		final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(jpeg)) {
+			writer.setOutput(output);
+			writer.write(null, new IIOImage(image, null, null), writeParam);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			writer.dispose();
+		}
+		return jpeg.toByteArray();
+	}
+
+}
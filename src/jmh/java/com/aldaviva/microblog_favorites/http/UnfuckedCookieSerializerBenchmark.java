@@ -0,0 +1,63 @@
+package com.aldaviva.microblog_favorites.http;
+
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing the cookies of one Twitter {@code Likes} request. The request context only implements {@link ClientRequestContext#getHeaders()}, which is
+ * all the filter uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UnfuckedCookieSerializerBenchmark {
+
+	private static final List<Object> COOKIES = List.of(
+	    new Cookie.Builder("_twitter_sess").value("BAh7CSIKZmxhc2hJQzonQWN0aW9uQ29udHJvbGxlcjo6Rmxhc2g6OkZsYXNoSGFzaHsABjoKQHVzZWR7ADoPY3JlYXRlZF9hdGwrCDt").build(),
+	    new Cookie.Builder("auth_token").value("0f6c8e3b9a1d2c4e5f708192a3b4c5d6e7f80912").build(),
+	    new Cookie.Builder("ct0").value("7d1e0c9f3a5b2d4c6e8f0a1b3c5d7e9f1a2b4c6d8e0f1a3b5c7d9e1f2a4b6c8d0e2f4a6b8c0d2e4f6a8b0c2d4e6f8a0b2c4d6e8f0a2b4c6").build(),
+	    "guest_id=v1%3A173701234567890123; night_mode=2");
+
+	private final UnfuckedCookieSerializer cookieSerializer = new UnfuckedCookieSerializer();
+	private final MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+	private ClientRequestContext requestContext;
+
+	@Setup
+	public void setUp() {
+		requestContext = (ClientRequestContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ClientRequestContext.class },
+		    (proxy, method, args) -> {
+			    if ("getHeaders".equals(method.getName())) {
+				    return headers;
+			    }
+			    throw new UnsupportedOperationException(method.getName());
+		    });
+	}
+
+	@Benchmark
+	public Object filter() throws IOException {
+		headers.put(HttpHeaders.COOKIE, COOKIES); // the filter replaces the cookies with one serialized header
+		cookieSerializer.filter(requestContext);
+		return headers.getFirst(HttpHeaders.COOKIE);
+	}
+
+}
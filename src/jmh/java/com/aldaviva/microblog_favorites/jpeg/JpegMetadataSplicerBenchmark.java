@@ -0,0 +1,103 @@
+package com.aldaviva.microblog_favorites.jpeg;
+
+import com.aldaviva.microblog_favorites.benchmark.Fixtures;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcRecord;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcTypes;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splicing metadata segments into a screenshot compared to the commons-imaging rewriters it replaced. Before measuring, this checks that both produce
+ * exactly the same file, since {@link JpegMetadataSplicer} relies on that.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JpegMetadataSplicerBenchmark {
+
+	@Param({ "1", "3", "6" })
+	public int screenshotMegabytes;
+
+	private byte[] screenshot;
+
+	@Setup
+	public void setUp() throws ImageReadException, ImageWriteException, IOException {
+		screenshot = Fixtures.screenshot(screenshotMegabytes);
+
+		final SplicedJpeg spliced = JpegMetadataSplicer.splice(screenshot, createExif(), createIptcRecords());
+		if (spliced == null) {
+			throw new IllegalStateException("Screenshot fixture can't be spliced, so this would only measure the fallback");
+		}
+		final ByteArrayOutputStream splicedBytes = new ByteArrayOutputStream();
+		spliced.writeTo(splicedBytes);
+
+		final byte[] expected = JpegMetadataSplicer.rewrite(screenshot, createExif(), createIptcRecords());
+		final byte[] actual = splicedBytes.toByteArray();
+		final int firstDifference = Arrays.mismatch(expected, actual);
+		if (firstDifference != -1) {
+			throw new IllegalStateException(String.format("Spliced image (%d bytes) differs from rewritten image (%d bytes) starting at byte %d",
+			    actual.length, expected.length, firstDifference));
+		}
+	}
+
+	@Benchmark
+	public SplicedJpeg splice() throws ImageWriteException, IOException {
+		return JpegMetadataSplicer.splice(screenshot, createExif(), createIptcRecords());
+	}
+
+	@Benchmark
+	public byte[] rewrite() throws ImageReadException, ImageWriteException, IOException {
+		return JpegMetadataSplicer.rewrite(screenshot, createExif(), createIptcRecords());
+	}
+
+	/**
+	 * Same fields as {@code FavoritesDownloader}, with fixed values so that every run produces the same bytes.
+	 */
+	private static TiffOutputSet createExif() throws ImageWriteException {
+		final TiffOutputSet exif = new TiffOutputSet();
+		final TiffOutputDirectory rootFolder = exif.getOrCreateRootDirectory();
+		rootFolder.add(TiffTagConstants.TIFF_TAG_DATE_TIME, "2025:01:16 11:15:41");
+		rootFolder.add(TiffTagConstants.TIFF_TAG_ARTIST, "Zoë García (zoe_garcia)");
+
+		final TiffOutputDirectory exifFolder = exif.getOrCreateExifDirectory();
+		exifFolder.add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, "2025:01:16 11:15:41");
+		exifFolder.add(ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED, "2025:02:01 09:00:00");
+		return exif;
+	}
+
+	private static List<IptcRecord> createIptcRecords() {
+		final List<IptcRecord> records = new ArrayList<>();
+		records.add(new IptcRecord(IptcTypes.BYLINE, "Zoë García"));
+		records.add(new IptcRecord(IptcTypes.BYLINE_TITLE, "zoe_garcia"));
+		records.add(new IptcRecord(IptcTypes.CAPTION_ABSTRACT, "Café déjà vu, every single morning! ".repeat(6).trim()));
+		records.add(new IptcRecord(IptcTypes.DATE_CREATED, "2025-01-16 11:15:41"));
+		records.add(new IptcRecord(IptcTypes.SOURCE, "https://x.com/zoe_garcia/status/1879990000000000000"));
+		return records;
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.aldaviva.microblog_favorites.services.bluesky;
+
+import com.aldaviva.microblog_favorites.benchmark.Fixtures;
+import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomObjectMapperProvider;
+import com.aldaviva.microblog_favorites.services.bluesky.BlueskySchema.FavoritesListResponse;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One full page of 100 liked posts from {@code app.bsky.feed.getActorLikes}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BlueskySchemaBenchmark {
+
+	private byte[] likesResponse;
+
+	@Setup
+	public void setUp() {
+		likesResponse = Fixtures.read("bluesky-likes.json");
+	}
+
+	@Benchmark
+	public FavoritesListResponse readFavoritesListResponse() throws IOException {
+		return CustomObjectMapperProvider.OBJECT_MAPPER.readValue(likesResponse, FavoritesListResponse.class);
+	}
+
+}
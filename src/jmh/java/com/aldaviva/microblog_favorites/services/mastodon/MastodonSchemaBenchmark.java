@@ -0,0 +1,48 @@
+package com.aldaviva.microblog_favorites.services.mastodon;
+
+import com.aldaviva.microblog_favorites.benchmark.Fixtures;
+import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomObjectMapperProvider;
+import com.aldaviva.microblog_favorites.services.mastodon.MastodonSchema.Status;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One full page of 40 statuses from {@code /api/v1/favourites}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MastodonSchemaBenchmark {
+
+	private static final TypeReference<List<Status>> STATUS_LIST = new TypeReference<>() {
+	};
+
+	private byte[] favoritesResponse;
+
+	@Setup
+	public void setUp() {
+		favoritesResponse = Fixtures.read("mastodon-favourites.json");
+	}
+
+	@Benchmark
+	public List<Status> readStatuses() throws IOException {
+		return CustomObjectMapperProvider.OBJECT_MAPPER.readValue(favoritesResponse, STATUS_LIST);
+	}
+
+}
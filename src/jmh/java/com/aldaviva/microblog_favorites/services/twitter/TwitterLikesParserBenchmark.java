@@ -0,0 +1,46 @@
+package com.aldaviva.microblog_favorites.services.twitter;
+
+import com.aldaviva.microblog_favorites.benchmark.Fixtures;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One full page of 88 liked tweets, from response bytes to {@link FavoriteTweet} objects, the way the downloader receives them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TwitterLikesParserBenchmark {
+
+	private byte[] likesResponse;
+
+	@Setup
+	public void setUp() {
+		likesResponse = Fixtures.read("twitter-likes.json");
+	}
+
+	@Benchmark
+	public List<FavoriteTweet> parseLikesPage() throws IOException {
+		final List<FavoriteTweet> favorites = new ArrayList<>();
+		TwitterLikesParser.parseLikesPage(new ByteArrayInputStream(likesResponse), favorites);
+		return favorites;
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.aldaviva.microblog_favorites;
+
+import com.aldaviva.microblog_favorites.jpeg.ImageBufferPool;
+import com.aldaviva.microblog_favorites.jpeg.SplicedJpeg;
+
+import java.io.File;
+
+/**
+ * A favorite post and the products of each stage of saving it, which are passed between the stages of a {@link FavoritesPipeline}.
+ */
+public class FavoriteScreenshot<POST extends FavoritePost> {
+
+	private final POST favorite;
+	private final ImageBufferPool.Reservation reservation;
+	private byte[] image;
+	private SplicedJpeg taggedImage;
+	private File file;
+
+	public FavoriteScreenshot(final POST favorite, final byte[] image, final ImageBufferPool.Reservation reservation) {
+		this.favorite = favorite;
+		this.image = image;
+		this.reservation = reservation;
+	}
+
+	public POST getFavorite() {
+		return favorite;
+	}
+
+	/**
+	 * This screenshot's share of the in-flight image budget, which must be closed once the screenshot has been saved
+	 */
+	public ImageBufferPool.Reservation getReservation() {
+		return reservation;
+	}
+
+	/**
+	 * JPEG bytes without metadata
+	 */
+	public byte[] getImage() {
+		return image;
+	}
+
+	public void setImage(final byte[] image) {
+		this.image = image;
+	}
+
+	/**
+	 * JPEG with metadata, or {@code null} if the screenshot has not been tagged yet
+	 */
+	public SplicedJpeg getTaggedImage() {
+		return taggedImage;
+	}
+
+	public void setTaggedImage(final SplicedJpeg taggedImage) {
+		this.taggedImage = taggedImage;
+	}
+
+	/**
+	 * Location on disk, or {@code null} if the screenshot has not been saved yet
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	public void setFile(final File file) {
+		this.file = file;
+	}
+
+}
@@ -1,21 +1,19 @@
 package com.aldaviva.microblog_favorites;
 
+import com.aldaviva.microblog_favorites.jpeg.ImageBufferPool;
+import com.aldaviva.microblog_favorites.jpeg.JpegMetadataSplicer;
+import com.aldaviva.microblog_favorites.jpeg.SplicedJpeg;
 import com.aldaviva.microblog_favorites.services.nixplay.NixplayUploader;
 
-import com.microsoft.playwright.ElementHandle;
 import com.microsoft.playwright.ElementHandle.ScreenshotOptions;
 import com.microsoft.playwright.Page;
-import com.microsoft.playwright.Page.WaitForSelectorOptions;
-import com.microsoft.playwright.options.LoadState;
 import com.microsoft.playwright.options.ScreenshotType;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -24,31 +22,33 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileVisitResult;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.regex.Pattern;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.ImageWriteException;
-import org.apache.commons.imaging.common.bytesource.ByteSource;
-import org.apache.commons.imaging.common.bytesource.ByteSourceArray;
-import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
 import org.apache.commons.imaging.formats.jpeg.iptc.IptcRecord;
 import org.apache.commons.imaging.formats.jpeg.iptc.IptcTypes;
-import org.apache.commons.imaging.formats.jpeg.iptc.JpegIptcRewriter;
-import org.apache.commons.imaging.formats.jpeg.iptc.PhotoshopApp13Data;
 import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
 import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
 import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
@@ -64,11 +64,24 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 	private static final ZoneId MY_TIME_ZONE = ZoneId.of("America/Los_Angeles");
 	private static final DateTimeFormatter EXIF_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss", Locale.US).withZone(MY_TIME_ZONE);
 	private static final DateTimeFormatter IPTC_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.US).withZone(MY_TIME_ZONE);
-	private static final ExifRewriter EXIF_REWRITER = new ExifRewriter();
-	private static final FilenameFilter SCREENSHOT_FILE_FILTER = new ScreenshotFileFilter();
-
-	protected final Set<String> previouslySavedPostIds = new HashSet<>();
+	private static final boolean FULL_RESCAN = Boolean.getBoolean("fullRescan"); // list every favorite, to find ones that were favorited out of order
+	private static final int KNOWN_FAVORITES_BEFORE_STOPPING = Integer.getInteger("knownFavoritesBeforeStopping", 100);
+	private static final String HIGH_WATERMARK_PROPERTY = "newestListedPostId";
+	private static final String LISTING_IN_PROGRESS_PROPERTY = "listingInProgress";
+	protected static final Duration PAGE_READY_DEADLINE = Duration.ofMillis(Long.getLong("pageReadyDeadlineMillis", 30 * 1000)); // the screenshot is taken anyway once this passes
+	private static final PageReadinessStrategy DEFAULT_READINESS_STRATEGY = new SignalPageReadinessStrategy(
+	    Duration.ofMillis(Long.getLong("pageQuietMillis", 300)), PAGE_READY_DEADLINE);
+
+	protected final PostIdSet previouslySavedPostIds = new PostIdSet(getPostIdEncoding());
 	protected final File screenshotsDirectory = ONLINE_SERVICES_BACKUP_DIRECTORY.toPath().resolve(getServiceName()).resolve("Favorites").toFile();
+	private final Path listingStateFile = ONLINE_SERVICES_BACKUP_DIRECTORY.toPath().resolve(getServiceName()).resolve("favorites-listing.properties");
+	private final SavedPostIndex savedPostIndex = new SavedPostIndex(screenshotsDirectory.toPath(),
+	    ONLINE_SERVICES_BACKUP_DIRECTORY.toPath().resolve(getServiceName()).resolve("favorites-index"));
+	private final ScreenshotArchiveWriter archiveWriter = new ScreenshotArchiveWriter(savedPostIndex);
+	private RequestBlockingRules requestBlockingRules;
+	private final PageReadinessStrategy.Statistics readinessStatistics = new PageReadinessStrategy.Statistics();
+	private final Properties listingState = new Properties();
+	private volatile String newestListedPostId;
 
 	private int subdirectoryId = 0;
 	private File subdirectory = null;
@@ -77,24 +90,15 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 	public FavoritesDownloader() {
 		screenshotsDirectory.mkdirs();
 
-		try {
-			Files.walkFileTree(screenshotsDirectory.toPath(), new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
-					if (attrs.isRegularFile()) {
-						final String filename = file.getFileName().toString();
-						final String basename = splitFileBaseNameAndExtension(filename)[0];
-
-						previouslySavedPostIds.add(basename);
-					}
-
-					return FileVisitResult.CONTINUE;
-				}
-			});
+		savedPostIndex.load(previouslySavedPostIds::add);
+		LOGGER.debug("Found {} existing {} favorites on disk.", previouslySavedPostIds.size(), getServiceName());
 
-			LOGGER.debug("Found {} existing {} favorites on disk.", previouslySavedPostIds.size(), getServiceName());
-		} catch (final IOException e) {
-			throw new RuntimeException("Failed to list existing downloaded screenshots in " + screenshotsDirectory, e);
+		if (Files.exists(listingStateFile)) {
+			try (Reader reader = Files.newBufferedReader(listingStateFile, StandardCharsets.UTF_8)) {
+				listingState.load(reader);
+			} catch (final IOException e) {
+				throw new RuntimeException("Failed to read " + listingStateFile, e);
+			}
 		}
 	}
 
@@ -103,68 +107,206 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 	 */
 	public abstract String getServiceName();
 
+	/**
+	 * How this service's post IDs can be stored compactly in {@link #previouslySavedPostIds}. IDs that don't fit the encoding still work, they just take
+	 * more memory.
+	 */
+	protected PostIdSet.Encoding getPostIdEncoding() {
+		return PostIdSet.Encoding.DECIMAL;
+	}
+
 	public abstract void signIn(final Page page);
 
-	protected abstract List<POST> listAllFavorites();
+	/**
+	 * Screenshots in subdirectory N of the screenshots directory are uploaded to the Nixplay album and playlist with this prefix followed by N.
+	 */
+	public final String getAlbumTitlePrefix() {
+		return getServiceName() + " Favorites ";
+	}
+
+	/**
+	 * @return pages of favorites from the service, newest first, which are only fetched as the iterator advances
+	 */
+	protected abstract Iterator<List<POST>> listFavoritePages();
+
+	protected final List<POST> listAllFavorites() {
+		final List<POST> allFavorites = new ArrayList<>();
+		listFavoritePages().forEachRemaining(allFavorites::addAll);
+		return allFavorites;
+	}
 
 	public final List<POST> listNewFavorites() {
-		LOGGER.info("Fetching all favorites from {}...", getServiceName());
-		final List<POST> allFavorites = listAllFavorites();
-		final List<POST> newFavorites = new ArrayList<>(allFavorites.size());
-		for (final POST favorite : allFavorites) {
-			if (!previouslySavedPostIds.contains(favorite.getId())) {
-				newFavorites.add(favorite);
-			}
+		try (Stream<POST> newFavorites = streamNewFavorites()) {
+			return newFavorites.collect(Collectors.toList());
 		}
-		LOGGER.info("There are {} favorites on {}, {} of which are new.", allFavorites.size(), getServiceName(), newFavorites.size());
-		return newFavorites;
 	}
 
 	/**
-	 * Writes image file to disk
-	 * @return the bytes of the image file, including EXIF/IPTC metadata
+	 * <p>Lazily list favorites that haven't been saved yet. Pages are fetched from the service as the stream is consumed, so rendering can start as soon as
+	 * the first page arrives, and a consumer that blocks (like a full {@link FavoritesPipeline}) also pauses pagination.</p>
+	 * <p>Posts that appear more than once in the listing, for example because pagination shifted while new posts were favorited, are only returned
+	 * once.</p>
+	 * <p>Since favorites are listed newest first, pagination stops early once it reaches the newest favorite from the last completed run (see
+	 * {@link #saveListingHighWatermark()}), or once it sees {@code knownFavoritesBeforeStopping} already-saved favorites in a row. If the last run did not
+	 * complete, every favorite is listed, because the favorites it failed to save may be older than a long run of ones it did save. To always list every
+	 * favorite, for example to catch old posts that the service lists out of order, run with {@code -DfullRescan=true}.</p>
 	 */
-	public final byte[] downloadFavorite(final POST favorite, final Page page) {
-		final File subdirectory = getOrCreateFirstNonFullSubdirectory();
-		final File screenshotFile = new File(subdirectory, getFilename(favorite));
+	public final Stream<POST> streamNewFavorites() {
+		final boolean isFullRescan = FULL_RESCAN || Boolean.parseBoolean(listingState.getProperty(LISTING_IN_PROGRESS_PROPERTY));
+		final String previousHighWatermark = isFullRescan ? null : listingState.getProperty(HIGH_WATERMARK_PROPERTY);
+		listingState.setProperty(LISTING_IN_PROGRESS_PROPERTY, Boolean.TRUE.toString());
+		writeListingState();
+
+		LOGGER.info("Fetching {} favorites from {}...", isFullRescan ? "all" : "new", getServiceName());
+		final AtomicInteger favoritesCount = new AtomicInteger();
+		final AtomicInteger newFavoritesCount = new AtomicInteger();
+		final AtomicInteger consecutiveKnownFavoritesCount = new AtomicInteger();
+		final Set<String> listedPostIds = new HashSet<>();
+		newestListedPostId = null;
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(listFavoritePages(), Spliterator.ORDERED | Spliterator.NONNULL), false)
+		    .flatMap(List::stream)
+		    .takeWhile(favorite -> {
+			    if (isFullRescan) {
+				    return true;
+			    } else if (favorite.getId().equals(previousHighWatermark)) {
+				    LOGGER.debug("Reached newest {} favorite from last run, stopping", getServiceName());
+				    return false;
+			    } else if (previouslySavedPostIds.contains(favorite.getId())) {
+				    return consecutiveKnownFavoritesCount.incrementAndGet() < KNOWN_FAVORITES_BEFORE_STOPPING;
+			    } else {
+				    consecutiveKnownFavoritesCount.set(0);
+				    return true;
+			    }
+		    })
+		    .peek(favorite -> {
+			    if (favoritesCount.getAndIncrement() == 0) {
+				    newestListedPostId = favorite.getId();
+			    }
+		    })
+		    .filter(favorite -> !previouslySavedPostIds.contains(favorite.getId()) && listedPostIds.add(favorite.getId()))
+		    .peek(favorite -> newFavoritesCount.incrementAndGet())
+		    .onClose(() -> LOGGER.info("Listed {} favorites on {}, {} of which are new.", favoritesCount.get(), getServiceName(), newFavoritesCount.get()));
+	}
 
+	/**
+	 * Remember the newest favorite from the last call to {@link #streamNewFavorites()}, so that the next run can stop listing when it reaches it. Only call
+	 * this after every new favorite from that listing has been saved, otherwise favorites that failed to save would never be listed again.
+	 */
+	public final void saveListingHighWatermark() {
+		final String highWatermark = newestListedPostId;
+		if (highWatermark != null) {
+			listingState.setProperty(HIGH_WATERMARK_PROPERTY, highWatermark);
+		}
+		listingState.remove(LISTING_IN_PROGRESS_PROPERTY);
+		writeListingState();
+	}
+
+	private void writeListingState() {
+		try (Writer writer = Files.newBufferedWriter(listingStateFile, StandardCharsets.UTF_8)) {
+			listingState.store(writer, getServiceName() + " favorites listing state");
+		} catch (final IOException e) {
+			throw new RuntimeException("Failed to write " + listingStateFile, e);
+		}
+	}
+
+	/**
+	 * Render, tag, and save a screenshot of a post. Safe to call from multiple threads at once, as long as each thread uses its own {@link Page}.
+	 * @return the image file, including EXIF/IPTC metadata
+	 */
+	public final SplicedJpeg downloadFavorite(final POST favorite, final Page page, final ImageBufferPool stagingBuffers) {
+		final SplicedJpeg taggedImage = tagScreenshot(renderFavorite(favorite, page), favorite);
+		saveScreenshot(taggedImage, favorite, stagingBuffers);
+		return taggedImage;
+	}
+
+	/**
+	 * First stage of saving a favorite: load the post in the browser and take a screenshot of it.
+	 * @return JPEG bytes without any metadata
+	 */
+	public final byte[] renderFavorite(final POST favorite, final Page page) {
 		final URI pageUrl = getPageUrl(favorite);
 		LOGGER.debug("Loading {}", pageUrl);
 		page.navigate(pageUrl.toString());
 
 		onNavigateToPage(page, favorite);
-		waitForPageToLoad(page, favorite);
 
-		final String screenshotSelector = getScreenshotSelector(favorite);
-		final ElementHandle screenshotEl = page.waitForSelector(screenshotSelector, new WaitForSelectorOptions().setTimeout(30 * 1000));
+		final long readinessStartTime = System.nanoTime();
+		final PageReadinessStrategy.Readiness readiness = getReadinessStrategy(favorite).waitUntilReady(page, getScreenshotSelector(favorite));
+		readinessStatistics.record(Duration.ofNanos(System.nanoTime() - readinessStartTime).toMillis(), readiness.isDeadlineReached);
 
-		final byte[] untaggedImage = screenshotEl.screenshot(new ScreenshotOptions()
+		return readiness.element.screenshot(new ScreenshotOptions()
 		    .setQuality(80)
 		    .setType(ScreenshotType.JPEG));
+	}
 
-		final byte[] taggedImage = addMetadataToImage(untaggedImage, favorite);
-		try (FileOutputStream fileOutputStream = new FileOutputStream(screenshotFile);
-		    OutputStream bufferedFileOutputStream = new BufferedOutputStream(fileOutputStream)) {
-			bufferedFileOutputStream.write(taggedImage);
+	/**
+	 * Second stage of saving a favorite: add the post's author, date, text, and URL to the screenshot as EXIF and IPTC metadata.
+	 * @return JPEG with metadata, which shares the untagged image's bytes
+	 */
+	public final SplicedJpeg tagScreenshot(final byte[] untaggedImage, final POST favorite) {
+		return addMetadataToImage(untaggedImage, favorite);
+	}
+
+	/**
+	 * Third stage of saving a favorite: durably write and index the tagged screenshot in the first non-full subdirectory (see
+	 * {@link ScreenshotArchiveWriter}), and remember that the post has been saved.
+	 * @param stagingBuffers direct buffers that the image is copied into before being written to the file
+	 * @return the image file
+	 */
+	public final File saveScreenshot(final SplicedJpeg taggedImage, final POST favorite, final ImageBufferPool stagingBuffers) {
+		final File screenshotFile = new File(reserveSubdirectorySlot(), getFilename(favorite));
+		try {
+			archiveWriter.write(screenshotFile.toPath(), taggedImage, stagingBuffers);
 			LOGGER.info("Saved " + favorite.getPostTypeNoun(false) + " " + favorite.getId() + " by " + favorite.getAuthorHandle());
 		} catch (final IOException e) {
 			throw new RuntimeException("Failed to save screenshot of post", e);
 		}
 
-		subdirectoryChildCount++;
 		previouslySavedPostIds.add(favorite.getId());
+		return screenshotFile;
+	}
 
-		return taggedImage;
+	/**
+	 * List every screenshot that has been saved, straight from the disk, for comparing against what was uploaded.
+	 * @return screenshot files in each numbered subdirectory, by subdirectory number
+	 */
+	public final SortedMap<Integer, List<File>> listSavedScreenshots() {
+		final SortedMap<Integer, List<File>> screenshotsBySubdirectory = new TreeMap<>();
+		final File[] subdirectories = screenshotsDirectory.listFiles(File::isDirectory);
+		if (subdirectories == null) {
+			throw new RuntimeException("Failed to list subdirectories of " + screenshotsDirectory);
+		}
+
+		for (final File subdirectory : subdirectories) {
+			final int subdirectoryNumber;
+			try {
+				subdirectoryNumber = Integer.parseInt(subdirectory.getName());
+			} catch (final NumberFormatException e) {
+				continue; // not one of ours
+			}
+
+			final List<File> screenshots = new ArrayList<>();
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(subdirectory.toPath())) {
+				for (final Path file : files) {
+					if (SavedPostIndex.isScreenshot(file) && Files.isRegularFile(file)) {
+						screenshots.add(file.toFile());
+					}
+				}
+			} catch (final IOException e) {
+				throw new RuntimeException("Failed to list screenshots in " + subdirectory, e);
+			}
+			screenshotsBySubdirectory.put(subdirectoryNumber, screenshots);
+		}
+		return screenshotsBySubdirectory;
 	}
 
 	public final String getFilename(final FavoritePost favorite) {
 		return favorite.getId() + ".jpg";
 	}
 
-	private byte[] addMetadataToImage(final byte[] untaggedImage, final FavoritePost favorite) {
+	static SplicedJpeg addMetadataToImage(final byte[] untaggedImage, final FavoritePost favorite) {
 		try {
-			final ByteSource byteSource = new ByteSourceArray(untaggedImage);
-
 			final List<IptcRecord> newRecords = new ArrayList<>();
 			newRecords.add(new IptcRecord(IptcTypes.BYLINE, normalizeCharacterSet(favorite.getAuthorName(), StandardCharsets.ISO_8859_1))); // IPTC only supports ISO-8859-1, not UTF-8 or anything, so remove any unsupported characters
 			newRecords.add(new IptcRecord(IptcTypes.BYLINE_TITLE, favorite.getAuthorHandle())); // I don't think Twitter handles can contain characters that require URL-encoding
@@ -172,11 +314,6 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 			newRecords.add(new IptcRecord(IptcTypes.DATE_CREATED, IPTC_DATE_FORMATTER.format(favorite.getDate())));
 			newRecords.add(new IptcRecord(IptcTypes.SOURCE, favorite.getUrl().toString()));
 
-			final PhotoshopApp13Data newData = new PhotoshopApp13Data(newRecords, Collections.emptyList());
-
-			final ByteArrayOutputStream bytesWithIptc = new ByteArrayOutputStream();
-			new JpegIptcRewriter().writeIPTC(byteSource, bytesWithIptc, newData);
-
 			final TiffOutputSet exifOutputSet = new TiffOutputSet();
 			final TiffOutputDirectory rootFolder = exifOutputSet.getOrCreateRootDirectory();
 			rootFolder.add(TiffTagConstants.TIFF_TAG_DATE_TIME, EXIF_DATE_FORMATTER.format(favorite.getDate()));
@@ -186,10 +323,7 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 			exifFolder.add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, EXIF_DATE_FORMATTER.format(favorite.getDate()));
 			exifFolder.add(ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED, EXIF_DATE_FORMATTER.format(Instant.now()));
 
-			final ByteArrayOutputStream exifFileStream = new ByteArrayOutputStream();
-			EXIF_REWRITER.updateExifMetadataLossless(bytesWithIptc.toByteArray(), exifFileStream, exifOutputSet);
-
-			return exifFileStream.toByteArray();
+			return JpegMetadataSplicer.addMetadata(untaggedImage, exifOutputSet, newRecords);
 		} catch (final ImageReadException | ImageWriteException | IOException e) {
 			throw new RuntimeException("Failed to add metadata to image", e);
 		}
@@ -197,8 +331,39 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 
 	protected abstract String getScreenshotSelector(POST favorite);
 
-	protected void waitForPageToLoad(final Page page, final POST favorite) {
-		page.waitForLoadState(LoadState.NETWORKIDLE);
+	/**
+	 * @return the requests to block while rendering this service's favorites, shared by all of its render workers
+	 */
+	public final synchronized RequestBlockingRules getRequestBlockingRules() {
+		if (requestBlockingRules == null) {
+			requestBlockingRules = new RequestBlockingRules();
+			addRequestBlockingRules(requestBlockingRules);
+		}
+		return requestBlockingRules;
+	}
+
+	/**
+	 * Declare which requests to block while rendering. Overrides should call this first to keep the rules that apply to every service.
+	 */
+	protected void addRequestBlockingRules(final RequestBlockingRules rules) {
+		rules.allowResourceTypes("document", "font") // the page itself, and fonts, which change how the text in the screenshot looks
+		    .blockResourceTypes("media")
+		    .blockUrls("HLS video segments", Pattern.compile("\\.(m3u8|ts|m4s)(\\?|$)"))
+		    .blockHosts("google-analytics.com", "googletagmanager.com", "doubleclick.net");
+	}
+
+	/**
+	 * @return how to tell when the favorite's page is ready for its screenshot
+	 */
+	protected PageReadinessStrategy getReadinessStrategy(final POST favorite) {
+		return DEFAULT_READINESS_STRATEGY;
+	}
+
+	/**
+	 * @return how long this service's pages took to become ready for their screenshots
+	 */
+	public final PageReadinessStrategy.Statistics getReadinessStatistics() {
+		return readinessStatistics;
 	}
 
 	protected void onNavigateToPage(final Page page, final POST favorite) {
@@ -209,7 +374,7 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 	}
 
 	// https://stackoverflow.com/a/4546093/979493
-	private static String[] splitFileBaseNameAndExtension(final String fileName) {
+	static String[] splitFileBaseNameAndExtension(final String fileName) {
 		final String[] split = FILE_BASENAME_EXTENSION_SPLITTER.split(fileName);
 		String[] result;
 		if (split.length == 1) {
@@ -222,13 +387,20 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 		return result;
 	}
 
-	private File getOrCreateFirstNonFullSubdirectory() {
+	/**
+	 * Find the first subdirectory with room for another screenshot, and count the screenshot against it before it is written, so that parallel workers
+	 * can't overfill a subdirectory. Subdirectory sizes come from the {@link SavedPostIndex}, so this doesn't list any directories.
+	 */
+	private synchronized File reserveSubdirectorySlot() {
 		while (subdirectoryId == 0 || subdirectoryChildCount >= NixplayUploader.MAX_PHOTOS_PER_PLAYLIST) {
 			subdirectoryId++;
 			subdirectory = new File(screenshotsDirectory, String.valueOf(subdirectoryId));
-			subdirectory.mkdirs();
-			subdirectoryChildCount = countScreenshotsInDirectory(subdirectory);
+			subdirectoryChildCount = savedPostIndex.getScreenshotCount(subdirectory.toPath());
+			if (subdirectoryChildCount == 0) {
+				subdirectory.mkdirs();
+			}
 		}
+		subdirectoryChildCount++;
 		return subdirectory;
 	}
 
@@ -248,7 +420,7 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 		}
 	}
 
-	private static String normalizeCharacterSet(final String input, final Charset outputCharacterSet) {
+	static String normalizeCharacterSet(final String input, final Charset outputCharacterSet) {
 		final CharsetEncoder encoder = outputCharacterSet.newEncoder();
 		encoder.onUnmappableCharacter(CodingErrorAction.IGNORE);
 		try {
@@ -259,16 +431,4 @@ public abstract class FavoritesDownloader<POST extends FavoritePost> implements
 		}
 	}
 
-	private static int countScreenshotsInDirectory(final File subdirectory) {
-		return subdirectory.list(SCREENSHOT_FILE_FILTER).length;
-	}
-
-	private static final class ScreenshotFileFilter implements FilenameFilter {
-		@Override
-		public boolean accept(final File dir, final String name) {
-			final String extension = splitFileBaseNameAndExtension(name)[1];
-			return "jpg".equalsIgnoreCase(extension) || "jpeg".equalsIgnoreCase(extension);
-		}
-	}
-
 }
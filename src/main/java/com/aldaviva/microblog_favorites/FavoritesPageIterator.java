@@ -0,0 +1,41 @@
+package com.aldaviva.microblog_favorites;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Fetches pages of favorites from a service's API lazily, one page per call to {@link #next()}, so that callers can start processing the first page before
+ * the last page has been fetched, and don't have to hold every favorite in memory at once.
+ */
+public abstract class FavoritesPageIterator<POST extends FavoritePost> implements Iterator<List<POST>> {
+
+	private List<POST> nextPage;
+	private boolean exhausted = false;
+
+	/**
+	 * Request the next page of favorites from the service.
+	 * @return the favorites on the next page, or {@code null} if there are no more pages
+	 */
+	protected abstract List<POST> fetchNextPage();
+
+	@Override
+	public boolean hasNext() {
+		if (nextPage == null && !exhausted) {
+			nextPage = fetchNextPage();
+			exhausted = nextPage == null;
+		}
+		return nextPage != null;
+	}
+
+	@Override
+	public List<POST> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final List<POST> page = nextPage;
+		nextPage = null;
+		return page;
+	}
+
+}
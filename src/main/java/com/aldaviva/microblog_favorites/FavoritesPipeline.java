@@ -0,0 +1,160 @@
+package com.aldaviva.microblog_favorites;
+
+import com.aldaviva.microblog_favorites.jpeg.ImageBufferPool;
+import com.aldaviva.microblog_favorites.pipeline.Pipeline;
+import com.aldaviva.microblog_favorites.pipeline.PipelineStage;
+import com.aldaviva.microblog_favorites.pipeline.PipelineStage.Worker;
+import com.aldaviva.microblog_favorites.services.nixplay.NixplayUploader;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * <p>Saves and uploads favorites from any {@link FavoritesDownloader} in four stages, each with its own threads:</p>
+ * <ol>
+ * <li><b>render</b>: take a screenshot of the post in a headless browser ({@link FavoritesDownloader#renderFavorite})</li>
+ * <li><b>tag</b>: add metadata to the screenshot ({@link FavoritesDownloader#tagScreenshot})</li>
+ * <li><b>persist</b>: write the screenshot to disk ({@link FavoritesDownloader#saveScreenshot})</li>
+ * <li><b>upload</b>: stream the saved files to Nixplay, in batches of whichever ones are waiting</li>
+ * </ol>
+ * <p>The stages are connected by small bounded queues, so the browsers keep rendering while Nixplay processes uploads, but if uploading falls behind, the
+ * renderers wait instead of filling memory with screenshots.</p>
+ * <p>Rendering also waits while the screenshots in the pipeline use up the in-flight budget of the {@link ImageBufferPool}, which is shared with any
+ * other pipelines running at the same time.</p>
+ */
+public class FavoritesPipeline<POST extends FavoritePost> {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(FavoritesPipeline.class);
+
+	private static final int RENDER_WORKERS = Integer.getInteger("renderWorkers", 4); // each worker runs its own headless browser
+	private static final int TAG_WORKERS = Integer.getInteger("tagWorkers", 2);
+	private static final int PERSIST_WORKERS = Integer.getInteger("persistWorkers", 4); // each waits for its screenshot to be committed, so this caps how many one disk sync covers
+	private static final int UPLOAD_WORKERS = Integer.getInteger("uploadWorkers", 1);
+	private static final int UPLOAD_BATCH_SIZE = Integer.getInteger("uploadBatchSize", 8); // screenshots sent to Nixplay together
+	private static final int QUEUE_CAPACITY = Integer.getInteger("pipelineQueueCapacity", 4);
+
+	private final FavoritesDownloader<POST> downloader;
+	private final Path storageStatePath;
+	private final NixplayUploader nixplay;
+	private final ImageBufferPool imageBuffers;
+	private final Set<ImageBufferPool.Reservation> openReservations = ConcurrentHashMap.newKeySet();
+	private final PagePool.Statistics renderStatistics = new PagePool.Statistics();
+
+	/**
+	 * @param nixplay if {@code null}, screenshots are only saved to disk
+	 */
+	public FavoritesPipeline(final FavoritesDownloader<POST> downloader, final Path storageStatePath, final NixplayUploader nixplay,
+	    final ImageBufferPool imageBuffers) {
+		this.downloader = downloader;
+		this.storageStatePath = storageStatePath;
+		this.nixplay = nixplay;
+		this.imageBuffers = imageBuffers;
+	}
+
+	/**
+	 * Save and upload the given favorites, blocking until they are all done. The stream is consumed no faster than the render stage can keep up with, so
+	 * a lazy stream like {@link FavoritesDownloader#streamNewFavorites()} only fetches more pages as they are needed. The stream is closed when this
+	 * method returns.
+	 * @return number of favorites saved
+	 */
+	public int run(final Stream<POST> favorites) {
+		final Pipeline pipeline = new Pipeline(downloader.getServiceName());
+
+		final PipelineStage<FavoriteScreenshot<POST>, ?> uploadStage = nixplay != null
+		    ? pipeline.addBatchStage("upload", UPLOAD_WORKERS, Math.max(QUEUE_CAPACITY, UPLOAD_BATCH_SIZE), UPLOAD_BATCH_SIZE, () -> this::upload, null)
+		    : null;
+		final PipelineStage<FavoriteScreenshot<POST>, FavoriteScreenshot<POST>> persistStage = pipeline.addStage("persist", PERSIST_WORKERS, QUEUE_CAPACITY,
+		    () -> this::persist, uploadStage);
+		final PipelineStage<FavoriteScreenshot<POST>, FavoriteScreenshot<POST>> tagStage = pipeline.addStage("tag", TAG_WORKERS, QUEUE_CAPACITY, () -> this::tag,
+		    persistStage);
+		final PipelineStage<POST, FavoriteScreenshot<POST>> renderStage = pipeline.addStage("render", RENDER_WORKERS, QUEUE_CAPACITY, BrowserRenderer::new,
+		    tagStage);
+
+		try (favorites) {
+			favorites.forEach(renderStage::submit);
+			renderStage.finish();
+		} catch (final RuntimeException e) {
+			pipeline.abort(e); // listing failed, or the pipeline already failed
+		}
+
+		try {
+			pipeline.await();
+		} finally {
+			openReservations.forEach(ImageBufferPool.Reservation::close); // screenshots that were dropped when the pipeline failed
+			LOGGER.info("{} {}", downloader.getServiceName(), renderStatistics);
+			LOGGER.info("{} {}", downloader.getServiceName(), downloader.getReadinessStatistics());
+			LOGGER.info("{} {}", downloader.getServiceName(), downloader.getRequestBlockingRules());
+		}
+
+		return (int) persistStage.getItemsProcessed();
+	}
+
+	private FavoriteScreenshot<POST> tag(final FavoriteScreenshot<POST> screenshot) {
+		screenshot.setTaggedImage(downloader.tagScreenshot(screenshot.getImage(), screenshot.getFavorite()));
+		return screenshot;
+	}
+
+	private FavoriteScreenshot<POST> persist(final FavoriteScreenshot<POST> screenshot) {
+		screenshot.setFile(downloader.saveScreenshot(screenshot.getTaggedImage(), screenshot.getFavorite(), imageBuffers));
+
+		// the upload stage reads the file instead, so the image doesn't have to stay in memory while it waits for Nixplay
+		screenshot.setImage(null);
+		screenshot.setTaggedImage(null);
+		release(screenshot.getReservation());
+		return screenshot;
+	}
+
+	private FavoriteScreenshot<POST> upload(final List<FavoriteScreenshot<POST>> screenshots) {
+		final List<File> files = new ArrayList<>(screenshots.size());
+		for (final FavoriteScreenshot<POST> screenshot : screenshots) {
+			files.add(screenshot.getFile());
+		}
+		nixplay.uploadToAlbumAndPlaylist(files, downloader.getAlbumTitlePrefix());
+		return null;
+	}
+
+	private void release(final ImageBufferPool.Reservation reservation) {
+		reservation.close();
+		openReservations.remove(reservation);
+	}
+
+	/**
+	 * Created on, and confined to, one thread of the render stage, because Playwright is not thread-safe. The browser is only launched once the first
+	 * favorite arrives, so runs with few or no new favorites don't pay for starting every render worker.
+	 */
+	private class BrowserRenderer implements Worker<POST, FavoriteScreenshot<POST>> {
+
+		private RenderWorker renderWorker;
+
+		@Override
+		public FavoriteScreenshot<POST> process(final POST favorite) throws InterruptedException {
+			final ImageBufferPool.Reservation reservation = imageBuffers.reserve();
+			openReservations.add(reservation);
+			try {
+				if (renderWorker == null) {
+					renderWorker = new RenderWorker(storageStatePath, renderStatistics, downloader.getRequestBlockingRules());
+				}
+
+				final byte[] image = renderWorker.render(page -> downloader.renderFavorite(favorite, page));
+				reservation.resize(image.length);
+				return new FavoriteScreenshot<>(favorite, image, reservation);
+			} catch (final RuntimeException e) {
+				release(reservation);
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() {
+			if (renderWorker != null) {
+				renderWorker.close();
+			}
+		}
+	}
+
+}
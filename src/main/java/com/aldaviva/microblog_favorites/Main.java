@@ -1,13 +1,10 @@
 package com.aldaviva.microblog_favorites;
 
-import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomJacksonFeature;
-import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomObjectMapperProvider;
-import com.aldaviva.microblog_favorites.http.UnfuckedCookieSerializer;
+import com.aldaviva.microblog_favorites.http.HttpClientFactory;
+import com.aldaviva.microblog_favorites.jpeg.ImageBufferPool;
 import com.aldaviva.microblog_favorites.services.bluesky.BlueskyDownloader;
 import com.aldaviva.microblog_favorites.services.mastodon.MastodonDownloader;
 import com.aldaviva.microblog_favorites.services.nixplay.NixplayUploader;
-import com.aldaviva.microblog_favorites.services.nixplay.data.Album;
-import com.aldaviva.microblog_favorites.services.nixplay.data.Playlist;
 import com.aldaviva.microblog_favorites.services.twitter.TwitterGraphQlDownloader;
 import com.aldaviva.playwright.ExtraInstallArgumentsDriver;
 
@@ -17,43 +14,46 @@ import com.microsoft.playwright.BrowserContext;
 import com.microsoft.playwright.BrowserType.LaunchOptions;
 import com.microsoft.playwright.Page;
 import com.microsoft.playwright.Playwright;
-import com.microsoft.playwright.impl.PlaywrightImpl;
 import jakarta.ws.rs.client.Client;
-import jakarta.ws.rs.client.ClientBuilder;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import org.glassfish.jersey.client.ClientConfig;
-import org.glassfish.jersey.client.ClientProperties;
-import org.glassfish.jersey.logging.LoggingFeature;
-import org.glassfish.jersey.logging.LoggingFeature.Verbosity;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
 public class Main {
 
 	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(Main.class);
 
-	private static final int SCREENSHOT_DPI_MULTIPLIER = 3;
+	private static final boolean PARALLEL_SERVICES = Boolean.getBoolean("parallelServices"); // list, render, and upload each service's favorites at the same time
+	private static final boolean RECONCILE_NIXPLAY = Boolean.getBoolean("reconcileNixplay"); // instead of saving new favorites, upload saved screenshots that are missing from Nixplay
+	private static final ImageBufferPool IMAGE_BUFFERS = new ImageBufferPool(
+	    Long.getLong("maxInFlightImageMegabytes", 256) * 1024 * 1024, // rendering waits while screenshots that haven't been saved yet add up to this much
+	    Long.getLong("imageBufferPoolMegabytes", 64) * 1024 * 1024);
+	private static final HttpClientFactory HTTP_CLIENTS = new HttpClientFactory();
 	private static final Pattern WORD = Pattern.compile("(?<word>(?<head>\\w)(?<tail>\\w*))");
 
 	public static void main(final String[] args) throws IOException, URISyntaxException {
 		SLF4JBridgeHandler.removeHandlersForRootLogger();
 		SLF4JBridgeHandler.install();
-		System.setProperty("sun.net.http.allowRestrictedHeaders", "true"); // stop omitting a subset of headers in requests to Nixplay, to avoid 403 errors
 
-		final Client httpClient = createHttpClient();
+		final Client httpClient = HTTP_CLIENTS.createClient();
 
-		final NixplayUploader nixplay = new NixplayUploader(httpClient);
+		final NixplayUploader nixplay = new NixplayUploader(httpClient, HTTP_CLIENTS.createFixedLengthUploadClient());
 		final Collection<FavoritesDownloader<? extends FavoritePost>> favoriteDownloaders = new ArrayList<>();
 		favoriteDownloaders.add(new TwitterGraphQlDownloader(httpClient));
 		favoriteDownloaders.add(new BlueskyDownloader(httpClient));
@@ -62,12 +62,57 @@ public class Main {
 		LOGGER.info("Logging into Nixplay...");
 		nixplay.signIn(ConfigurationFactory.getNixplayCredentials());
 
+		final Path storageStatePath = new File(FavoritesDownloader.ONLINE_SERVICES_BACKUP_DIRECTORY, "storage.json").toPath();
+		if (!RECONCILE_NIXPLAY) {
+			signInToServices(favoriteDownloaders, storageStatePath);
+		}
+
+		final long startTime = System.nanoTime();
+		final List<ServiceRunSummary> summaries;
+		final Duration elapsed;
+		try {
+			if (RECONCILE_NIXPLAY) {
+				summaries = uploadMissingFavoritesInSequence(favoriteDownloaders, nixplay);
+			} else {
+				summaries = PARALLEL_SERVICES
+				    ? saveAndUploadNewFavoritesInParallel(favoriteDownloaders, storageStatePath, nixplay)
+				    : saveAndUploadNewFavoritesInSequence(favoriteDownloaders, storageStatePath, nixplay);
+			}
+			elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+		} catch (final RuntimeException e) {
+			HTTP_CLIENTS.getWireLog().logRecentExchanges("Failed to save favorites");
+			throw e;
+		} finally {
+			for (final FavoritesDownloader<?> favoriteDownloader : favoriteDownloaders) {
+				try {
+					favoriteDownloader.close();
+				} catch (final Exception e) {
+				}
+			}
+
+			try {
+				nixplay.close(); // even if the run failed, so that the album photo counts from the uploads that did finish are saved
+			} catch (final Exception e) {
+				LOGGER.warn("Failed to close Nixplay uploader", e);
+			}
+		}
+
 		int favoritesDownloaded = 0;
+		for (final ServiceRunSummary summary : summaries) {
+			LOGGER.info("{}: uploaded {} favorites in {} seconds.", summary.serviceName, summary.favoritesSaved, summary.elapsed.toSeconds());
+			favoritesDownloaded += summary.favoritesSaved;
+		}
+		LOGGER.info("Done, uploaded {} favorites in {} seconds.", favoritesDownloaded, elapsed.toSeconds());
+		LOGGER.info(IMAGE_BUFFERS.toString());
+		LOGGER.info(HTTP_CLIENTS.toString());
+	}
+
+	private static void signInToServices(final Collection<FavoritesDownloader<? extends FavoritePost>> favoriteDownloaders, final Path storageStatePath)
+	    throws IOException {
 		LOGGER.info("Initializing browser...");
 		// Only download Chromium (& dependencies), not Firefox or WebKit, in order to save download time, download quota, and disk space
 		ExtraInstallArgumentsDriver.activate();
-		try (final Playwright playwright = PlaywrightImpl.create(ExtraInstallArgumentsDriver.setExtraInstallArguments("chromium"))) {
-			final Path storageStatePath = new File(FavoritesDownloader.ONLINE_SERVICES_BACKUP_DIRECTORY, "storage.json").toPath();
+		try (final Playwright playwright = RenderWorker.createPlaywright()) {
 			final Browser loginBrowser = playwright.chromium().launch(new LaunchOptions().setHeadless(false));
 			final BrowserContext loginBrowserContext = loginBrowser.newContext(new NewContextOptions()
 			    .setStorageStatePath(Files.exists(storageStatePath) ? storageStatePath : null)); //setStorageStatePath crashes if storage file is not found
@@ -81,71 +126,97 @@ public class Main {
 
 			Files.writeString(storageStatePath, loginBrowserContext.storageState(), StandardCharsets.UTF_8); //save storage
 			loginBrowser.close();
+		}
+	}
 
-			final Browser postBrowser = playwright.chromium().launch(new LaunchOptions().setHeadless(true));
-			final BrowserContext postBrowserContext = postBrowser.newContext(new NewContextOptions()
-			    .setDeviceScaleFactor(SCREENSHOT_DPI_MULTIPLIER)
-			    .setViewportSize(1920, 1200) //tall enough for protected tweets to not get cut off, especially if they are replies to other long tweets that appear above them
-			    .setStorageStatePath(storageStatePath));
-
-			for (final FavoritesDownloader<? extends FavoritePost> downloader : favoriteDownloaders) {
-				favoritesDownloaded += saveAndUploadNewFavorites(downloader, postBrowserContext, nixplay);
-			}
+	/**
+	 * Reconciliation mode ({@code -DreconcileNixplay=true}): compare each service's saved screenshots to all of its Nixplay albums, and upload the ones
+	 * that are missing, for example because a run crashed between saving and uploading them. No browser is started, and no favorites are listed.
+	 */
+	private static List<ServiceRunSummary> uploadMissingFavoritesInSequence(final Collection<FavoritesDownloader<? extends FavoritePost>> favoriteDownloaders,
+	    final NixplayUploader nixplay) {
+		final List<ServiceRunSummary> summaries = new ArrayList<>(favoriteDownloaders.size());
+		for (final FavoritesDownloader<? extends FavoritePost> downloader : favoriteDownloaders) {
+			final long startTime = System.nanoTime();
+			final List<File> savedScreenshots = new ArrayList<>();
+			downloader.listSavedScreenshots().values().forEach(savedScreenshots::addAll); // oldest subdirectory first
+			final int uploadedCount = nixplay.reconcileAlbums(savedScreenshots, downloader.getAlbumTitlePrefix());
+
+			final Duration elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+			LOGGER.info("Uploaded {} saved {} favorites that were missing from Nixplay in {} seconds.", uploadedCount, downloader.getServiceName(),
+			    elapsed.toSeconds());
+			summaries.add(new ServiceRunSummary(downloader.getServiceName(), uploadedCount, elapsed));
+		}
+		return summaries;
+	}
 
-			postBrowser.close();
+	private static List<ServiceRunSummary> saveAndUploadNewFavoritesInSequence(final Collection<FavoritesDownloader<? extends FavoritePost>> favoriteDownloaders,
+	    final Path storageStatePath, final NixplayUploader nixplay) {
+		final List<ServiceRunSummary> summaries = new ArrayList<>(favoriteDownloaders.size());
+		for (final FavoritesDownloader<? extends FavoritePost> downloader : favoriteDownloaders) {
+			summaries.add(saveAndUploadNewFavorites(downloader, storageStatePath, nixplay));
 		}
+		return summaries;
+	}
 
-		for (final FavoritesDownloader<?> favoriteDownloader : favoriteDownloaders) {
-			try {
-				favoriteDownloader.close();
-			} catch (final Exception e) {
-			}
+	/**
+	 * Each service gets its own lane (thread and render workers), since they talk to unrelated hosts and write to separate directories. The total time is
+	 * then about the same as the slowest service, instead of the sum of all of them.
+	 */
+	private static List<ServiceRunSummary> saveAndUploadNewFavoritesInParallel(final Collection<FavoritesDownloader<? extends FavoritePost>> favoriteDownloaders,
+	    final Path storageStatePath, final NixplayUploader nixplay) {
+		final ExecutorService lanes = Executors.newFixedThreadPool(favoriteDownloaders.size(), namedThreadFactory("Service lane"));
+		final List<Future<ServiceRunSummary>> laneResults = new ArrayList<>(favoriteDownloaders.size());
+		for (final FavoritesDownloader<? extends FavoritePost> downloader : favoriteDownloaders) {
+			laneResults.add(lanes.submit(() -> saveAndUploadNewFavorites(downloader, storageStatePath, nixplay)));
 		}
+		lanes.shutdown();
 
+		final List<ServiceRunSummary> summaries = new ArrayList<>(favoriteDownloaders.size());
 		try {
-			nixplay.close();
-		} catch (final Exception e) {
+			for (final Future<ServiceRunSummary> laneResult : laneResults) {
+				summaries.add(laneResult.get());
+			}
+		} catch (final ExecutionException e) {
+			lanes.shutdownNow();
+			throw new RuntimeException(e.getCause());
+		} catch (final InterruptedException e) {
+			lanes.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
 		}
-
-		LOGGER.info("Done, uploaded {} favorites.", favoritesDownloaded);
+		return summaries;
 	}
 
-	private static <P extends FavoritePost> int saveAndUploadNewFavorites(final FavoritesDownloader<P> downloader, final BrowserContext postBrowserContext, final NixplayUploader nixplay) {
-		final List<P> newFavorites = downloader.listNewFavorites();
-
-		for (final P favorite : newFavorites) {
-			LOGGER.debug("Loading " + favorite.getPostTypeNoun(false) + " " + favorite.getId() + "...");
-			try (Page page = postBrowserContext.newPage()) {
-				final byte[] taggedImage = downloader.downloadFavorite(favorite, page);
+	private static <P extends FavoritePost> ServiceRunSummary saveAndUploadNewFavorites(final FavoritesDownloader<P> downloader, final Path storageStatePath,
+	    final NixplayUploader nixplay) {
+		final long startTime = System.nanoTime();
+		final int savedCount = new FavoritesPipeline<>(downloader, storageStatePath, nixplay, IMAGE_BUFFERS).run(downloader.streamNewFavorites());
+		downloader.saveListingHighWatermark();
 
-				if (nixplay != null) {
-					final Album album = nixplay.getOrCreateAlbum(downloader.getServiceName() + " Favorites ");
-					final Playlist playlist = nixplay.getOrCreatePlaylist(album);
-					final String filename = downloader.getFilename(favorite);
+		final Duration elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+		LOGGER.info("Saved {} {} favorites in {} seconds ({} favorites/minute).", savedCount, downloader.getServiceName(), elapsed.toSeconds(),
+		    String.format("%.1f", savedCount / (elapsed.toNanos() / 1e9) * 60));
 
-					nixplay.uploadToAlbumAndPlaylist(taggedImage, filename, album, playlist);
-				}
-			}
-		}
+		return new ServiceRunSummary(downloader.getServiceName(), savedCount, elapsed);
+	}
 
-		return newFavorites.size();
+	private static ThreadFactory namedThreadFactory(final String namePrefix) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return runnable -> new Thread(runnable, namePrefix + " " + threadCount.incrementAndGet());
 	}
 
-	private static Client createHttpClient() {
-		final ClientConfig clientConfig = new ClientConfig();
-		clientConfig.register(CustomObjectMapperProvider.class);
-		clientConfig.register(CustomJacksonFeature.class);
-		clientConfig.register(UnfuckedCookieSerializer.class);
-		clientConfig.property(ClientProperties.CONNECT_TIMEOUT, 5 * 1000);
-		clientConfig.property(ClientProperties.READ_TIMEOUT, 30 * 1000);
-		clientConfig.property(ClientProperties.FOLLOW_REDIRECTS, false);
-
-		// Set the http logger to TRACE level for HTTP wire logging in logback.xml
-		final Logger httpLogger = Logger.getLogger("http");
-		httpLogger.setLevel(Level.ALL);
-		clientConfig.register(new LoggingFeature(httpLogger, Level.FINEST, Verbosity.PAYLOAD_ANY, 1 * 1024 * 1024)); // LoggingInterceptor actually allocates maxEntitySize bytes for every request, so probably shouldn't be MAX_INT
-
-		return ClientBuilder.newClient(clientConfig);
+	private static final class ServiceRunSummary {
+
+		final String serviceName;
+		final int favoritesSaved;
+		final Duration elapsed;
+
+		ServiceRunSummary(final String serviceName, final int favoritesSaved, final Duration elapsed) {
+			this.serviceName = serviceName;
+			this.favoritesSaved = favoritesSaved;
+			this.elapsed = elapsed;
+		}
 	}
 
 	public static String titleCase(final String input) {
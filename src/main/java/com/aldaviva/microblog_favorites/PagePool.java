@@ -0,0 +1,155 @@
+package com.aldaviva.microblog_favorites;
+
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Page;
+import com.microsoft.playwright.PlaywrightException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * <p>Reuses the pages of one {@link BrowserContext} for many favorites, so that each favorite doesn't pay for starting a new renderer, and the browser
+ * can keep the service's app shell in its memory cache between favorites.</p>
+ *
+ * <p>A page is reset when it's returned, by clearing the session storage of the post it showed and navigating to {@code about:blank}, which also
+ * discards style tags injected by {@link FavoritesDownloader#onNavigateToPage}. Routes and other handlers must be added to the context rather than to
+ * pages, since they would outlive the favorite they were added for. A page is closed instead of reused if rendering or resetting it failed, or after
+ * {@code -DrenderPageMaxUses} favorites, in case the service's web app leaks memory. To compare render times with a new page for every favorite, run
+ * with {@code -DrenderPagePool=false}.</p>
+ *
+ * <p>Like everything from Playwright, this must only be used on the thread that created its context.</p>
+ */
+public class PagePool implements AutoCloseable {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(PagePool.class);
+
+	private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("renderPagePool", "true"));
+	private static final int MAX_USES_PER_PAGE = Integer.getInteger("renderPageMaxUses", 50);
+
+	private final BrowserContext browserContext;
+	private final Statistics statistics;
+	private final Deque<Page> idlePages = new ArrayDeque<>();
+	private final Map<Page, Integer> usesByPage = new IdentityHashMap<>();
+
+	PagePool(final BrowserContext browserContext, final Statistics statistics) {
+		this.browserContext = browserContext;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Render one favorite on an idle page, or on a new page if there are none, and record how long it took.
+	 * @param renderer loads the favorite on the given page, which it must not close
+	 */
+	public <T> T render(final Function<Page, T> renderer) {
+		final Page page = acquire();
+		final boolean isNewPage = usesByPage.get(page) == 1;
+		final long startTime = System.nanoTime();
+		boolean succeeded = false;
+		try {
+			final T result = renderer.apply(page);
+			succeeded = true;
+			return result;
+		} finally {
+			if (succeeded) {
+				statistics.recordRender(isNewPage, System.nanoTime() - startTime);
+			}
+			release(page, !succeeded);
+		}
+	}
+
+	private Page acquire() {
+		Page page = idlePages.pollFirst();
+		if (page == null) {
+			page = browserContext.newPage();
+		}
+		usesByPage.merge(page, 1, Integer::sum);
+		return page;
+	}
+
+	/**
+	 * @param failed {@code true} if the page may be in a bad state, so it will be closed instead of reused
+	 */
+	private void release(final Page page, final boolean failed) {
+		final int uses = usesByPage.getOrDefault(page, 0);
+		if (!ENABLED) {
+			discard(page);
+		} else if (failed) {
+			statistics.pagesDiscardedAfterErrors.incrementAndGet();
+			discard(page);
+		} else if (uses >= MAX_USES_PER_PAGE) {
+			statistics.pagesRetired.incrementAndGet();
+			discard(page);
+		} else {
+			try {
+				reset(page);
+				idlePages.addFirst(page);
+			} catch (final PlaywrightException e) {
+				LOGGER.debug("Failed to reset page for reuse, closing it", e);
+				statistics.pagesDiscardedAfterErrors.incrementAndGet();
+				discard(page);
+			}
+		}
+	}
+
+	private static void reset(final Page page) {
+		if (page.url().startsWith("http")) {
+			page.evaluate("() => sessionStorage.clear()"); // survives navigating away and back to the same origin in this tab
+		}
+		page.navigate("about:blank");
+	}
+
+	private void discard(final Page page) {
+		usesByPage.remove(page);
+		try {
+			page.close();
+		} catch (final PlaywrightException e) {
+			LOGGER.debug("Failed to close page", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		while (!idlePages.isEmpty()) {
+			discard(idlePages.pollFirst());
+		}
+	}
+
+	/**
+	 * How long favorites took to render on new and reused pages, shared by every render worker of a pipeline. Thread-safe.
+	 */
+	public static class Statistics {
+
+		private final AtomicLong newPageRenders = new AtomicLong();
+		private final AtomicLong newPageNanos = new AtomicLong();
+		private final AtomicLong reusedPageRenders = new AtomicLong();
+		private final AtomicLong reusedPageNanos = new AtomicLong();
+		private final AtomicLong pagesRetired = new AtomicLong();
+		private final AtomicLong pagesDiscardedAfterErrors = new AtomicLong();
+
+		void recordRender(final boolean isNewPage, final long elapsedNanos) {
+			if (isNewPage) {
+				newPageRenders.incrementAndGet();
+				newPageNanos.addAndGet(elapsedNanos);
+			} else {
+				reusedPageRenders.incrementAndGet();
+				reusedPageNanos.addAndGet(elapsedNanos);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Rendering (page pool %s): %d favorites on new pages took %d ms each, %d on reused pages took %d ms each; %d pages retired after %d uses, %d closed after errors",
+			    ENABLED ? "enabled" : "disabled", newPageRenders.get(), averageMillis(newPageNanos.get(), newPageRenders.get()), reusedPageRenders.get(),
+			    averageMillis(reusedPageNanos.get(), reusedPageRenders.get()), pagesRetired.get(), MAX_USES_PER_PAGE, pagesDiscardedAfterErrors.get());
+		}
+
+		private static long averageMillis(final long totalNanos, final long count) {
+			return count > 0 ? TimeUnit.NANOSECONDS.toMillis(totalNanos / count) : 0;
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.aldaviva.microblog_favorites;
+
+import com.microsoft.playwright.ElementHandle;
+import com.microsoft.playwright.Page;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides when a favorite's page is ready for its screenshot, after it has been navigated to. Each {@link FavoritesDownloader} can choose a strategy
+ * per favorite with {@link FavoritesDownloader#getReadinessStrategy}.
+ */
+public interface PageReadinessStrategy {
+
+	/**
+	 * Wait for the element to appear and finish rendering, but no longer than the strategy's deadline.
+	 * @param selector CSS or XPath selector of the element to take a screenshot of
+	 * @return the element, and whether it was ready before the deadline
+	 * @throws com.microsoft.playwright.TimeoutError if the element did not appear before the deadline
+	 */
+	Readiness waitUntilReady(Page page, String selector);
+
+	final class Readiness {
+
+		public final ElementHandle element;
+		public final boolean isDeadlineReached;
+
+		public Readiness(final ElementHandle element, final boolean isDeadlineReached) {
+			this.element = element;
+			this.isDeadlineReached = isDeadlineReached;
+		}
+	}
+
+	/**
+	 * How long pages took to become ready, for tuning each service's strategy. Thread-safe.
+	 */
+	final class Statistics {
+
+		private final List<Long> latencyMillis = new ArrayList<>();
+		private int deadlinesReached = 0;
+
+		public synchronized void record(final long elapsedMillis, final boolean isDeadlineReached) {
+			latencyMillis.add(elapsedMillis);
+			if (isDeadlineReached) {
+				deadlinesReached++;
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			if (latencyMillis.isEmpty()) {
+				return "Page readiness: no pages rendered";
+			}
+
+			final List<Long> sorted = new ArrayList<>(latencyMillis);
+			Collections.sort(sorted);
+			return String.format("Page readiness: %d pages, median %d ms, 95th percentile %d ms, max %d ms; %d reached the deadline before they were ready",
+			    sorted.size(), percentile(sorted, 50), percentile(sorted, 95), sorted.get(sorted.size() - 1), deadlinesReached);
+		}
+
+		private static long percentile(final List<Long> sorted, final int percent) {
+			return sorted.get(Math.max(0, (int) Math.ceil(sorted.size() * percent / 100.0) - 1));
+		}
+	}
+
+}
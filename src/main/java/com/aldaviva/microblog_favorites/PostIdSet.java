@@ -0,0 +1,240 @@
+package com.aldaviva.microblog_favorites;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>Set of post IDs that stores IDs as primitive {@code long}s instead of {@link String}s whenever an {@link Encoding} can convert them losslessly, which
+ * takes a fraction of the memory of a {@code HashSet<String>} for archives with hundreds of thousands of posts. IDs that can't be encoded are stored in a
+ * regular {@link HashSet} instead.</p>
+ *
+ * <p>A Bloom filter in front of both sets answers most lookups of IDs that are not in the set without touching the hash table, and without allocating
+ * any objects. It is blocked: all of an ID's bits are in the same {@code long}, so each lookup costs at most one cache miss.</p>
+ *
+ * <p>Thread-safe.</p>
+ */
+public class PostIdSet {
+
+	private static final long EMPTY = -1; // encoded IDs are never negative
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int BLOOM_FILTER_BITS_PER_SLOT = 16;
+	private static final int BLOOM_FILTER_HASH_COUNT = 4;
+	private static final long BLOOM_FILTER_SEED = 0xbf58476d1ce4e5b9L;
+
+	/**
+	 * Lossless conversion of post ID strings to non-negative {@code long}s. Must be injective: two different IDs may never encode to the same value.
+	 */
+	public enum Encoding {
+
+		/**
+		 * Base-10 integers without leading zeros, like Twitter and Mastodon snowflake IDs.
+		 */
+		DECIMAL {
+			@Override
+			long encode(final String id) {
+				final int length = id.length();
+				if (length == 0 || length > 19 || (id.charAt(0) == '0' && length > 1)) {
+					return EMPTY;
+				}
+
+				long result = 0;
+				for (int i = 0; i < length; i++) {
+					final int digit = id.charAt(i) - '0';
+					if (digit < 0 || digit > 9) {
+						return EMPTY;
+					}
+					result = result * 10 + digit;
+				}
+				return result >= 0 ? result : EMPTY; // 19 digits fit in an unsigned long, so an overflow only ever sets the sign bit
+			}
+		},
+
+		/**
+		 * <a href="https://atproto.com/specs/tid">Timestamp identifiers</a>, like Bluesky record keys: 13 characters of base32-sortable, encoding a 64-bit
+		 * integer whose top bit is 0.
+		 */
+		TID {
+			@Override
+			long encode(final String id) {
+				if (id.length() != 13) {
+					return EMPTY;
+				}
+
+				long result = 0;
+				for (int i = 0; i < 13; i++) {
+					final char character = id.charAt(i);
+					final int digit = character < BASE32_SORTABLE_DIGITS.length ? BASE32_SORTABLE_DIGITS[character] : -1;
+					if (digit == -1 || (i == 0 && digit >= 8)) { // first character can only hold the 3 low bits of the 4 bits left over, since the top bit is 0
+						return EMPTY;
+					}
+					result = (result << 5) | digit;
+				}
+				return result;
+			}
+		};
+
+		/**
+		 * @return the encoded ID, or {@link PostIdSet#EMPTY} if the ID can't be encoded
+		 */
+		abstract long encode(String id);
+	}
+
+	private static final byte[] BASE32_SORTABLE_DIGITS = new byte['z' + 1];
+
+	static {
+		Arrays.fill(BASE32_SORTABLE_DIGITS, (byte) -1);
+		final String alphabet = "234567abcdefghijklmnopqrstuvwxyz";
+		for (int digit = 0; digit < alphabet.length(); digit++) {
+			BASE32_SORTABLE_DIGITS[alphabet.charAt(digit)] = (byte) digit;
+		}
+	}
+
+	private final Encoding encoding;
+	private final Set<String> unencodableIds = new HashSet<>();
+	private long[] encodedIds;
+	private int encodedIdCount = 0;
+	private long[] bloomFilter;
+
+	public PostIdSet(final Encoding encoding) {
+		this.encoding = encoding;
+		encodedIds = newTable(INITIAL_CAPACITY);
+		bloomFilter = new long[INITIAL_CAPACITY * BLOOM_FILTER_BITS_PER_SLOT / Long.SIZE];
+	}
+
+	/**
+	 * @return {@code true} if the ID was not already in the set
+	 */
+	public synchronized boolean add(final String id) {
+		final long encodedId = encoding.encode(id);
+		final boolean added;
+		if (encodedId == EMPTY) {
+			added = unencodableIds.add(id);
+			if (added) {
+				addToBloomFilter(bloomFilter, hashUnencodable(id));
+			}
+		} else {
+			added = insert(encodedIds, encodedId);
+			if (added) {
+				addToBloomFilter(bloomFilter, hashEncoded(encodedId));
+				if (++encodedIdCount > encodedIds.length / 4 * 3) {
+					grow();
+				}
+			}
+		}
+		return added;
+	}
+
+	public synchronized boolean contains(final String id) {
+		final long encodedId = encoding.encode(id);
+		if (encodedId == EMPTY) {
+			return mightContain(bloomFilter, hashUnencodable(id)) && unencodableIds.contains(id);
+		} else {
+			return mightContain(bloomFilter, hashEncoded(encodedId)) && indexOf(encodedIds, encodedId) >= 0;
+		}
+	}
+
+	public synchronized int size() {
+		return encodedIdCount + unencodableIds.size();
+	}
+
+	private void grow() {
+		final long[] newEncodedIds = newTable(encodedIds.length * 2);
+		final long[] newBloomFilter = new long[newEncodedIds.length * BLOOM_FILTER_BITS_PER_SLOT / Long.SIZE];
+		for (final long encodedId : encodedIds) {
+			if (encodedId != EMPTY) {
+				insert(newEncodedIds, encodedId);
+				addToBloomFilter(newBloomFilter, hashEncoded(encodedId));
+			}
+		}
+		for (final String unencodableId : unencodableIds) {
+			addToBloomFilter(newBloomFilter, hashUnencodable(unencodableId));
+		}
+		encodedIds = newEncodedIds;
+		bloomFilter = newBloomFilter;
+	}
+
+	private static long[] newTable(final int capacity) {
+		final long[] table = new long[capacity];
+		Arrays.fill(table, EMPTY);
+		return table;
+	}
+
+	/**
+	 * Linear probing, since the table is always at most 3/4 full.
+	 * @return {@code false} if the table already contained the value
+	 */
+	private static boolean insert(final long[] table, final long value) {
+		final int mask = table.length - 1;
+		for (int slot = (int) hashEncoded(value) & mask;; slot = (slot + 1) & mask) {
+			if (table[slot] == value) {
+				return false;
+			} else if (table[slot] == EMPTY) {
+				table[slot] = value;
+				return true;
+			}
+		}
+	}
+
+	private static int indexOf(final long[] table, final long value) {
+		final int mask = table.length - 1;
+		for (int slot = (int) hashEncoded(value) & mask;; slot = (slot + 1) & mask) {
+			if (table[slot] == value) {
+				return slot;
+			} else if (table[slot] == EMPTY) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @param hash the same hash that chooses the ID's slot in the table
+	 */
+	private static void addToBloomFilter(final long[] bloomFilter, final long hash) {
+		final long bloomFilterHash = bloomFilterHash(hash);
+		bloomFilter[(int) bloomFilterHash & (bloomFilter.length - 1)] |= bloomFilterMask(bloomFilterHash);
+	}
+
+	private static boolean mightContain(final long[] bloomFilter, final long hash) {
+		final long bloomFilterHash = bloomFilterHash(hash);
+		final long mask = bloomFilterMask(bloomFilterHash);
+		return (bloomFilter[(int) bloomFilterHash & (bloomFilter.length - 1)] & mask) == mask;
+	}
+
+	/**
+	 * The table's slot comes from the low bits of the hash, so if the filter used them too, IDs that collide in the table would always share a filter word,
+	 * and the filter would be least useful for the lookups that probe the longest. Instead, it mixes the hash again, and uses the low bits of that to choose
+	 * the word.
+	 */
+	private static long bloomFilterHash(final long hash) {
+		return hashEncoded(hash ^ BLOOM_FILTER_SEED);
+	}
+
+	/**
+	 * Each 6-bit group of the high bits of the filter's hash chooses one bit in the word.
+	 */
+	private static long bloomFilterMask(final long bloomFilterHash) {
+		long mask = 0;
+		for (int i = 0; i < BLOOM_FILTER_HASH_COUNT; i++) {
+			mask |= 1L << (bloomFilterHash >>> (Long.SIZE - 6 * (i + 1)));
+		}
+		return mask;
+	}
+
+	/**
+	 * Finalization step of MurmurHash3, which spreads sequential snowflake IDs evenly across the table.
+	 */
+	static long hashEncoded(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+	private static long hashUnencodable(final String id) {
+		return hashEncoded(id.hashCode() ^ 0x9e3779b97f4a7c15L);
+	}
+
+}
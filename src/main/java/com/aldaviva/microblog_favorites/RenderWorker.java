@@ -0,0 +1,90 @@
+package com.aldaviva.microblog_favorites;
+
+import com.aldaviva.playwright.ExtraInstallArgumentsDriver;
+
+import com.microsoft.playwright.Browser;
+import com.microsoft.playwright.Browser.NewContextOptions;
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.BrowserType.LaunchOptions;
+import com.microsoft.playwright.Page;
+import com.microsoft.playwright.Playwright;
+import com.microsoft.playwright.impl.PlaywrightImpl;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * <p>A headless browser for rendering screenshots of posts.</p>
+ *
+ * <p>Playwright is not thread-safe, and every object it creates must only be used on the thread that created its {@link Playwright} instance. Therefore,
+ * each thread that renders screenshots in parallel must construct, use, and close its own instance of this class.</p>
+ */
+public class RenderWorker implements AutoCloseable {
+
+	private static final int SCREENSHOT_DPI_MULTIPLIER = 3;
+
+	private final Playwright playwright;
+	private final Browser browser;
+	private final BrowserContext browserContext;
+	private final PagePool pagePool;
+
+	/**
+	 * @param renderStatistics records render times from this worker, and may be shared with other workers
+	 * @param requestBlockingRules requests to block on every page, see {@link RequestBlockingRules}
+	 */
+	public RenderWorker(final Path storageStatePath, final PagePool.Statistics renderStatistics, final RequestBlockingRules requestBlockingRules) {
+		playwright = createPlaywright();
+		Browser launchedBrowser = null;
+		try {
+			launchedBrowser = playwright.chromium().launch(new LaunchOptions().setHeadless(true));
+			browserContext = launchedBrowser.newContext(new NewContextOptions()
+			    .setDeviceScaleFactor(SCREENSHOT_DPI_MULTIPLIER)
+			    .setViewportSize(1920, 1200) //tall enough for protected tweets to not get cut off, especially if they are replies to other long tweets that appear above them
+			    .setStorageStatePath(storageStatePath));
+			requestBlockingRules.applyTo(browserContext);
+		} catch (final RuntimeException e) {
+			// nothing will call close() on a worker that failed to construct, so don't leave its browser and driver processes running
+			closeAfterFailure(launchedBrowser, e);
+			closeAfterFailure(playwright, e);
+			throw e;
+		}
+		browser = launchedBrowser;
+		pagePool = new PagePool(browserContext, renderStatistics);
+	}
+
+	/**
+	 * @param failure the reason for closing, which any exception from closing is added to, so that it doesn't hide the original failure
+	 */
+	private static void closeAfterFailure(final AutoCloseable closeable, final RuntimeException failure) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (final Exception e) {
+				failure.addSuppressed(e);
+			}
+		}
+	}
+
+	/**
+	 * Render a favorite on a page that may have been used for earlier favorites, see {@link PagePool}.
+	 * @param renderer loads the favorite on the given page, which it must not close
+	 */
+	public <T> T render(final Function<Page, T> renderer) {
+		return pagePool.render(renderer);
+	}
+
+	/**
+	 * Only download Chromium (&amp; dependencies), not Firefox or WebKit, in order to save download time, download quota, and disk space.
+	 * Call {@link ExtraInstallArgumentsDriver#activate()} once before calling this.
+	 */
+	public static Playwright createPlaywright() {
+		return PlaywrightImpl.create(ExtraInstallArgumentsDriver.setExtraInstallArguments("chromium"));
+	}
+
+	@Override
+	public void close() {
+		pagePool.close();
+		browser.close();
+		playwright.close();
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.aldaviva.microblog_favorites;
+
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Request;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Requests that a service's pages make while rendering, which don't affect the screenshot and would only delay it, like analytics, ads, and video.
+ * Each {@link FavoritesDownloader} declares its rules in {@link FavoritesDownloader#addRequestBlockingRules(RequestBlockingRules)}.</p>
+ *
+ * <p>A request is aborted if it matches any block rule and no allow rule. Allow rules are for requests that must never be blocked, like fonts, which
+ * change how the text in the screenshot looks.</p>
+ *
+ * <p>Counters show how many requests each rule blocked. Blocked requests are never sent, so their size is unknown. To measure how many bytes each rule
+ * would save, run with {@code -DrenderRequestBlockingDryRun=true}, which lets every request through and counts the response bodies of the ones that
+ * would have been blocked, as well as of the ones that would have been allowed. Response sizes are only read in a dry run, since each one is another
+ * round trip to the browser. Run with {@code -DrenderRequestBlocking=false} to turn blocking off, since Playwright disables the browser's HTTP cache
+ * while requests are being routed.</p>
+ *
+ * <p>Thread-safe once all of the rules have been added, so one instance can be shared by all of a service's render workers.</p>
+ */
+public class RequestBlockingRules {
+
+	private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("renderRequestBlocking", "true"));
+	private static final boolean DRY_RUN = Boolean.getBoolean("renderRequestBlockingDryRun");
+
+	private final List<Rule> allowRules = new ArrayList<>();
+	private final List<Rule> blockRules = new ArrayList<>();
+	private final AtomicLong requestsAllowed = new AtomicLong();
+	private final AtomicLong bytesAllowed = new AtomicLong();
+
+	/**
+	 * @param resourceTypes Playwright {@link Request#resourceType() resource types}, like {@code font} or {@code document}
+	 */
+	public RequestBlockingRules allowResourceTypes(final String... resourceTypes) {
+		allowRules.add(resourceTypeRule(resourceTypes));
+		return this;
+	}
+
+	/**
+	 * @param resourceTypes Playwright {@link Request#resourceType() resource types}, like {@code media} or {@code image}
+	 */
+	public RequestBlockingRules blockResourceTypes(final String... resourceTypes) {
+		blockRules.add(resourceTypeRule(resourceTypes));
+		return this;
+	}
+
+	/**
+	 * @param hosts requests to these hosts, or any of their subdomains, are blocked
+	 */
+	public RequestBlockingRules blockHosts(final String... hosts) {
+		blockRules.add(new Rule("hosts " + String.join(", ", hosts), request -> {
+			final String host;
+			try {
+				host = URI.create(request.url()).getHost();
+			} catch (final IllegalArgumentException e) {
+				return false; // not a URL that could have one of these hosts
+			}
+			return host != null && Arrays.stream(hosts).anyMatch(blockedHost -> host.equals(blockedHost) || host.endsWith("." + blockedHost));
+		}));
+		return this;
+	}
+
+	/**
+	 * @param name describes the requests in the counters
+	 * @param urlPattern requests whose URL contains a match of this pattern are blocked
+	 */
+	public RequestBlockingRules blockUrls(final String name, final Pattern urlPattern) {
+		blockRules.add(new Rule(name, request -> urlPattern.matcher(request.url()).find()));
+		return this;
+	}
+
+	/**
+	 * Start blocking and counting requests from every page in the context, or only counting them and their response sizes in a dry run.
+	 */
+	void applyTo(final BrowserContext browserContext) {
+		if (!ENABLED || blockRules.isEmpty()) {
+			return;
+		}
+
+		if (DRY_RUN) {
+			browserContext.onRequestFinished(request -> {
+				final long responseBytes = Math.max(0, request.sizes().responseBodySize);
+				final Rule blockingRule = findBlockingRule(request);
+				if (blockingRule != null) {
+					blockingRule.requests.incrementAndGet();
+					blockingRule.bytes.addAndGet(responseBytes);
+				} else {
+					requestsAllowed.incrementAndGet();
+					bytesAllowed.addAndGet(responseBytes);
+				}
+			});
+		} else {
+			browserContext.route("**/*", route -> {
+				final Rule blockingRule = findBlockingRule(route.request());
+				if (blockingRule != null) {
+					blockingRule.requests.incrementAndGet();
+					route.abort("blockedbyclient");
+				} else {
+					requestsAllowed.incrementAndGet();
+					route.resume();
+				}
+			});
+		}
+	}
+
+	private Rule findBlockingRule(final Request request) {
+		if (allowRules.stream().anyMatch(rule -> rule.matches.test(request))) {
+			return null;
+		}
+		return blockRules.stream().filter(rule -> rule.matches.test(request)).findFirst().orElse(null);
+	}
+
+	private static Rule resourceTypeRule(final String... resourceTypes) {
+		final Set<String> types = Set.of(resourceTypes);
+		return new Rule("resource types " + String.join(", ", resourceTypes), request -> types.contains(request.resourceType()));
+	}
+
+	@Override
+	public String toString() {
+		if (!ENABLED || blockRules.isEmpty()) {
+			return "Request blocking: disabled";
+		}
+
+		final StringBuilder summary = new StringBuilder(String.format(Locale.ROOT, "Request blocking%s: %d requests allowed", DRY_RUN ? " (dry run)" : "",
+		    requestsAllowed.get()));
+		if (DRY_RUN) {
+			summary.append(String.format(Locale.ROOT, " (%d KB)", bytesAllowed.get() / 1024));
+		}
+		for (final Rule rule : blockRules) {
+			summary.append(String.format(Locale.ROOT, "; %s: %d %s", rule.name, rule.requests.get(), DRY_RUN ? "would be blocked" : "blocked"));
+			if (DRY_RUN) {
+				summary.append(String.format(Locale.ROOT, " (%d KB)", rule.bytes.get() / 1024));
+			}
+		}
+		return summary.toString();
+	}
+
+	private static final class Rule {
+
+		final String name;
+		final Predicate<Request> matches;
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+
+		Rule(final String name, final Predicate<Request> matches) {
+			this.name = name;
+			this.matches = matches;
+		}
+	}
+
+}
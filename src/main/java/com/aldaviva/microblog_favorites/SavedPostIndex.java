@@ -0,0 +1,175 @@
+package com.aldaviva.microblog_favorites;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Persistent index of the IDs of posts that have already been saved in a service's screenshots directory, so that startup doesn't have to list every
+ * screenshot, which is slow on network drives.</p>
+ *
+ * <p>Each subdirectory of screenshots has an index file containing the IDs of the screenshots in it, one per line. The index file's modification time
+ * is set to the subdirectory's modification time whenever it is updated. Adding, removing, or renaming a file in a subdirectory changes the
+ * subdirectory's modification time, so if the two times differ, the index file is stale (for example, screenshots were deleted by hand, or the program
+ * crashed after saving a screenshot but before indexing it) and the subdirectory is scanned again.</p>
+ *
+ * <p>For this to work, an index file must only be stamped with a modification time that doesn't include any renames missing from the index, so
+ * {@link ScreenshotArchiveWriter} indexes each group of screenshots that it commits before it lets the next group be renamed.</p>
+ *
+ * <p>Since each index file lists exactly the screenshots in its subdirectory, it also serves as a manifest of how full each subdirectory is, so finding a
+ * subdirectory with room for a new screenshot doesn't require listing any directories either.</p>
+ */
+public class SavedPostIndex {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(SavedPostIndex.class);
+
+	private static final String INDEX_FILE_EXTENSION = ".ids";
+
+	private final Path screenshotsDirectory;
+	private final Path indexDirectory;
+	private final Map<String, Integer> screenshotCountsBySubdirectory = new ConcurrentHashMap<>();
+
+	public SavedPostIndex(final Path screenshotsDirectory, final Path indexDirectory) {
+		this.screenshotsDirectory = screenshotsDirectory;
+		this.indexDirectory = indexDirectory;
+	}
+
+	/**
+	 * Read the IDs of all saved posts and the number of screenshots in each subdirectory, scanning only the subdirectories whose index files are missing
+	 * or stale. Subdirectories are read in parallel.
+	 * @param savedPostIdConsumer receives each ID, and must be thread-safe
+	 * @return the number of IDs
+	 */
+	public int load(final Consumer<String> savedPostIdConsumer) {
+		final List<Path> subdirectories;
+		try {
+			Files.createDirectories(indexDirectory);
+			try (Stream<Path> children = Files.list(screenshotsDirectory)) {
+				subdirectories = children.filter(Files::isDirectory).collect(Collectors.toList());
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Failed to list subdirectories of " + screenshotsDirectory, e);
+		}
+
+		final AtomicInteger idCount = new AtomicInteger();
+		final AtomicInteger rescannedSubdirectoryCount = new AtomicInteger();
+		try {
+			subdirectories.parallelStream().forEach(subdirectory -> {
+				final List<String> ids;
+				try {
+					final Path indexFile = getIndexFile(subdirectory);
+					final FileTime subdirectoryModified = Files.getLastModifiedTime(subdirectory);
+					if (Files.exists(indexFile) && Files.getLastModifiedTime(indexFile).equals(subdirectoryModified)) {
+						ids = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+					} else {
+						LOGGER.debug("Index of {} is stale, rescanning", subdirectory);
+						ids = scanSubdirectory(subdirectory);
+						Files.write(indexFile, ids, StandardCharsets.UTF_8);
+						Files.setLastModifiedTime(indexFile, Files.getLastModifiedTime(subdirectory)); // scanning may have deleted temporary files
+						rescannedSubdirectoryCount.incrementAndGet();
+					}
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+
+				ids.forEach(savedPostIdConsumer);
+				idCount.addAndGet(ids.size());
+				screenshotCountsBySubdirectory.put(subdirectory.getFileName().toString(), ids.size());
+			});
+
+			deleteOrphanedIndexFiles(subdirectories);
+		} catch (final IOException | UncheckedIOException e) {
+			throw new RuntimeException("Failed to index existing downloaded screenshots in " + screenshotsDirectory, e);
+		}
+
+		LOGGER.debug("Loaded index of {}, rescanned {} of {} subdirectories", screenshotsDirectory, rescannedSubdirectoryCount.get(), subdirectories.size());
+		return idCount.get();
+	}
+
+	/**
+	 * Record that screenshots were saved, after they have been renamed to their final locations. Must be called before any other file in their
+	 * subdirectories is renamed, since the subdirectories' current modification times are copied to their index files.
+	 * @param screenshotFiles files in subdirectories of the screenshots directory
+	 */
+	synchronized void addAll(final List<Path> screenshotFiles) {
+		final Map<Path, List<String>> idsBySubdirectory = new LinkedHashMap<>();
+		for (final Path screenshotFile : screenshotFiles) {
+			idsBySubdirectory.computeIfAbsent(screenshotFile.getParent(), subdirectory -> new ArrayList<>())
+			    .add(FavoritesDownloader.splitFileBaseNameAndExtension(screenshotFile.getFileName().toString())[0]);
+		}
+
+		for (final Map.Entry<Path, List<String>> subdirectoryIds : idsBySubdirectory.entrySet()) {
+			final Path subdirectory = subdirectoryIds.getKey();
+			final List<String> ids = subdirectoryIds.getValue();
+			final Path indexFile = getIndexFile(subdirectory);
+			try {
+				Files.write(indexFile, ids, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				Files.setLastModifiedTime(indexFile, Files.getLastModifiedTime(subdirectory));
+			} catch (final IOException e) {
+				throw new RuntimeException("Failed to add " + ids + " to index " + indexFile, e);
+			}
+			screenshotCountsBySubdirectory.merge(subdirectory.getFileName().toString(), ids.size(), Integer::sum);
+		}
+	}
+
+	/**
+	 * @return how many screenshots were in the given subdirectory when the index was loaded, plus any added since, or {@code 0} if it didn't exist
+	 */
+	public int getScreenshotCount(final Path subdirectory) {
+		return screenshotCountsBySubdirectory.getOrDefault(subdirectory.getFileName().toString(), 0);
+	}
+
+	public static boolean isScreenshot(final Path file) {
+		final String extension = FavoritesDownloader.splitFileBaseNameAndExtension(file.getFileName().toString())[1];
+		return "jpg".equalsIgnoreCase(extension) || "jpeg".equalsIgnoreCase(extension);
+	}
+
+	private Path getIndexFile(final Path subdirectory) {
+		return indexDirectory.resolve(subdirectory.getFileName().toString() + INDEX_FILE_EXTENSION);
+	}
+
+	/**
+	 * List the screenshots in a subdirectory, and delete any temporary files left behind by screenshots that were being written when the program crashed.
+	 */
+	private static List<String> scanSubdirectory(final Path subdirectory) throws IOException {
+		final List<String> ids = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(subdirectory)) {
+			for (final Path file : files) {
+				if (ScreenshotArchiveWriter.isTemporaryFile(file)) {
+					LOGGER.debug("Deleting incompletely saved screenshot {}", file);
+					Files.delete(file);
+				} else if (isScreenshot(file) && Files.isRegularFile(file)) {
+					ids.add(FavoritesDownloader.splitFileBaseNameAndExtension(file.getFileName().toString())[0]);
+				}
+			}
+		}
+		return ids;
+	}
+
+	private void deleteOrphanedIndexFiles(final List<Path> subdirectories) throws IOException {
+		final List<Path> expectedIndexFiles = subdirectories.stream().map(this::getIndexFile).collect(Collectors.toList());
+		try (Stream<Path> indexFiles = Files.list(indexDirectory)) {
+			for (final Path indexFile : (Iterable<Path>) indexFiles::iterator) {
+				if (indexFile.getFileName().toString().endsWith(INDEX_FILE_EXTENSION) && !expectedIndexFiles.contains(indexFile)) {
+					LOGGER.debug("Deleting index file {} because its subdirectory no longer exists", indexFile);
+					Files.delete(indexFile);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+package com.aldaviva.microblog_favorites;
+
+import com.aldaviva.microblog_favorites.jpeg.ImageBufferPool;
+import com.aldaviva.microblog_favorites.jpeg.SplicedJpeg;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Writes screenshots so that a crash can never leave a truncated file under a screenshot's real name, which would make the post look like it had
+ * already been saved.</p>
+ *
+ * <p>Each screenshot is written to a temporary file next to its destination, which is flushed to disk and then atomically renamed to the real name. The
+ * rename only becomes durable once the directory is synced too, so files are committed in groups: whichever thread finishes writing first flushes
+ * every temporary file that is ready, then renames them all, then syncs each of their directories once, while the threads that finish in the meantime
+ * wait for the next group. Writing a file only fills the page cache, so the disk is only waited on while committing, and the flushes of a group run
+ * back to back, where the filesystem can coalesce them into the same journal commit.</p>
+ *
+ * <p>Each group is added to the {@link SavedPostIndex} before the next group is renamed, so that the subdirectory modification times which the index
+ * records never include a rename that it's missing.</p>
+ *
+ * <p>Temporary files left behind by a crash are ignored by {@link SavedPostIndex#isScreenshot(Path)} and deleted the next time their directory is
+ * rescanned.</p>
+ */
+public class ScreenshotArchiveWriter {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(ScreenshotArchiveWriter.class);
+
+	public static final String TEMPORARY_FILE_EXTENSION = ".partial";
+
+	private final SavedPostIndex savedPostIndex;
+	private final Object commitLock = new Object();
+	private List<PendingRename> pendingRenames = new ArrayList<>(); // guarded by commitLock
+	private boolean isCommitting = false; // guarded by commitLock
+	private volatile boolean isDirectorySyncSupported = true;
+
+	/**
+	 * @param savedPostIndex records each screenshot once it's committed
+	 */
+	public ScreenshotArchiveWriter(final SavedPostIndex savedPostIndex) {
+		this.savedPostIndex = savedPostIndex;
+	}
+
+	/**
+	 * Write a file and wait until it is durably saved under its final name and added to the index.
+	 * @param destination final location of the file, which is replaced if it already exists
+	 * @param stagingBuffers direct buffers that the image is copied into before being written to the file
+	 */
+	public void write(final Path destination, final SplicedJpeg image, final ImageBufferPool stagingBuffers) throws IOException {
+		final Path temporaryFile = destination.resolveSibling(destination.getFileName().toString() + TEMPORARY_FILE_EXTENSION);
+		final FileChannel fileChannel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		    StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			image.writeTo(fileChannel, stagingBuffers);
+		} catch (final IOException | RuntimeException e) {
+			fileChannel.close();
+			throw e;
+		}
+
+		commit(new PendingRename(fileChannel, temporaryFile, destination)); // closes the channel
+	}
+
+	public static boolean isTemporaryFile(final Path file) {
+		return file.getFileName().toString().endsWith(TEMPORARY_FILE_EXTENSION);
+	}
+
+	/**
+	 * Wait for the file to be committed, either by a group that another thread is committing, or by committing a new group on this thread.
+	 */
+	private void commit(final PendingRename pendingRename) throws IOException {
+		final List<PendingRename> group;
+		boolean isInterrupted = false;
+		synchronized (commitLock) {
+			pendingRenames.add(pendingRename);
+			while (isCommitting && !pendingRename.isDone) {
+				try {
+					commitLock.wait();
+				} catch (final InterruptedException e) {
+					isInterrupted = true; // the file is already written, so keep waiting for its rename instead of leaving it half-saved
+				}
+			}
+
+			if (!pendingRename.isDone) {
+				isCommitting = true;
+				group = pendingRenames;
+				pendingRenames = new ArrayList<>();
+			} else {
+				group = null;
+			}
+		}
+
+		if (group != null) {
+			Exception failure = null;
+			try {
+				commitGroup(group);
+			} catch (final IOException | RuntimeException e) {
+				failure = e;
+			} finally {
+				synchronized (commitLock) {
+					for (final PendingRename renamed : group) {
+						renamed.isDone = true;
+						renamed.failure = failure;
+					}
+					isCommitting = false;
+					commitLock.notifyAll();
+				}
+			}
+		}
+
+		if (isInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (pendingRename.failure != null) {
+			throw new IOException("Failed to commit " + pendingRename.destination, pendingRename.failure);
+		}
+	}
+
+	private void commitGroup(final List<PendingRename> group) throws IOException {
+		IOException closeFailure = null;
+		try {
+			for (final PendingRename pendingRename : group) {
+				pendingRename.fileChannel.force(false);
+			}
+		} finally {
+			for (final PendingRename pendingRename : group) {
+				try {
+					pendingRename.fileChannel.close();
+				} catch (final IOException e) {
+					closeFailure = e;
+				}
+			}
+		}
+		if (closeFailure != null) {
+			throw closeFailure;
+		}
+
+		final Set<Path> directories = new LinkedHashSet<>();
+		final List<Path> committedFiles = new ArrayList<>(group.size());
+		for (final PendingRename pendingRename : group) {
+			// replaces an existing destination file on both Windows and POSIX
+			Files.move(pendingRename.temporaryFile, pendingRename.destination, StandardCopyOption.ATOMIC_MOVE);
+			directories.add(pendingRename.destination.getParent());
+			committedFiles.add(pendingRename.destination);
+		}
+
+		if (isDirectorySyncSupported) {
+			for (final Path directory : directories) {
+				syncDirectory(directory);
+			}
+		}
+
+		// still the only thread renaming, so nothing after this group is included in the modification times it stamps
+		savedPostIndex.addAll(committedFiles);
+		LOGGER.debug("Committed {} screenshots with {} directory syncs", group.size(), isDirectorySyncSupported ? directories.size() : 0);
+	}
+
+	/**
+	 * Windows can't open directories as files, but NTFS journals renames anyway, so there is nothing to sync there.
+	 */
+	private void syncDirectory(final Path directory) throws IOException {
+		final FileChannel directoryChannel;
+		try {
+			directoryChannel = FileChannel.open(directory, StandardOpenOption.READ);
+		} catch (final IOException e) {
+			LOGGER.debug("Directories can't be synced on this platform, skipping directory syncs", e);
+			isDirectorySyncSupported = false;
+			return;
+		}
+
+		try (directoryChannel) {
+			directoryChannel.force(true);
+		}
+	}
+
+	private static final class PendingRename {
+
+		final FileChannel fileChannel; // written but not yet flushed
+		final Path temporaryFile;
+		final Path destination;
+		boolean isDone = false; // guarded by commitLock
+		Exception failure; // guarded by commitLock
+
+		PendingRename(final FileChannel fileChannel, final Path temporaryFile, final Path destination) {
+			this.fileChannel = fileChannel;
+			this.temporaryFile = temporaryFile;
+			this.destination = destination;
+		}
+	}
+
+}
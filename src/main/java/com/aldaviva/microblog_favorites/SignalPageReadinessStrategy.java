@@ -0,0 +1,79 @@
+package com.aldaviva.microblog_favorites;
+
+import com.microsoft.playwright.ElementHandle;
+import com.microsoft.playwright.Page;
+import com.microsoft.playwright.Page.WaitForSelectorOptions;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * <p>Ready once the page itself says that the element has finished rendering, instead of waiting for the network to go idle, which can take a minute on
+ * pages that keep a connection open or poll in the background. In order:</p>
+ * <ol>
+ * <li>the element matches the selector</li>
+ * <li>nothing in the element has changed for the quiet period, so content that the web app inserts after the element appears is included</li>
+ * <li>all fonts in the document have loaded</li>
+ * <li>every image in the element has been decoded, or has failed to load</li>
+ * </ol>
+ * <p>If the element appears but the rest doesn't happen before the deadline, the screenshot is taken anyway.</p>
+ */
+public class SignalPageReadinessStrategy implements PageReadinessStrategy {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(SignalPageReadinessStrategy.class);
+
+	/**
+	 * Resolves to {@code true} if every signal happened before the deadline. Signals that don't happen in time are skipped, so it always resolves.
+	 */
+	private static final String WAIT_FOR_SIGNALS_SCRIPT = """
+		async (element, { quietMillis, timeoutMillis }) => {
+			const deadline = performance.now() + timeoutMillis;
+			let isDeadlineReached = false;
+			const beforeDeadline = promise => new Promise(resolve => {
+				const deadlineTimer = setTimeout(() => { isDeadlineReached = true; resolve(); }, Math.max(0, deadline - performance.now()));
+				promise.finally(() => { clearTimeout(deadlineTimer); resolve(); });
+			});
+
+			let observer;
+			await beforeDeadline(new Promise(resolve => {
+				let quietTimer = setTimeout(resolve, quietMillis);
+				observer = new MutationObserver(() => {
+					clearTimeout(quietTimer);
+					quietTimer = setTimeout(resolve, quietMillis);
+				});
+				observer.observe(element, { subtree: true, childList: true, attributes: true, characterData: true });
+			}));
+			observer.disconnect();
+
+			await beforeDeadline(document.fonts.ready);
+			await beforeDeadline(Promise.allSettled(Array.from(element.querySelectorAll('img'), image => image.decode())));
+			return !isDeadlineReached;
+		}
+		""";
+
+	private final Duration quietPeriod;
+	private final Duration deadline;
+
+	/**
+	 * @param quietPeriod how long the element must go without changing
+	 * @param deadline longest time to wait for the whole page, starting from when this strategy is called
+	 */
+	public SignalPageReadinessStrategy(final Duration quietPeriod, final Duration deadline) {
+		this.quietPeriod = quietPeriod;
+		this.deadline = deadline;
+	}
+
+	@Override
+	public Readiness waitUntilReady(final Page page, final String selector) {
+		final long startTime = System.nanoTime();
+		final ElementHandle element = page.waitForSelector(selector, new WaitForSelectorOptions().setTimeout(deadline.toMillis()));
+
+		final long remainingMillis = Math.max(0, deadline.minus(Duration.ofNanos(System.nanoTime() - startTime)).toMillis());
+		final boolean isReady = Boolean.TRUE.equals(element.evaluate(WAIT_FOR_SIGNALS_SCRIPT,
+		    Map.of("quietMillis", quietPeriod.toMillis(), "timeoutMillis", remainingMillis)));
+		if (!isReady) {
+			LOGGER.debug("{} was not ready after {} ms, taking screenshot anyway", page.url(), deadline.toMillis());
+		}
+		return new Readiness(element, !isReady);
+	}
+
+}
@@ -6,9 +6,13 @@ import jakarta.ws.rs.core.HttpHeaders;
 import java.io.IOException;
 import java.util.Arrays;
 
+/**
+ * Sends an OAuth bearer token with each request. Safe to share between threads: requests always see the token from the most recent
+ * {@link #setAccessToken(String)}.
+ */
 public class BearerAuthenticationFilter implements ClientRequestFilter {
 
-	private String accessToken;
+	private volatile String accessToken;
 
 	public void setAccessToken(final String accessToken) {
 		this.accessToken = accessToken;
@@ -16,6 +20,7 @@ public class BearerAuthenticationFilter implements ClientRequestFilter {
 
 	@Override
 	public void filter(final ClientRequestContext requestContext) throws IOException {
+		final String accessToken = this.accessToken; // read once, so a concurrent sign-out can't null it between the check and the header
 		if (accessToken != null) {
 			requestContext.getHeaders().putIfAbsent(HttpHeaders.AUTHORIZATION, Arrays.asList("Bearer " + accessToken));
 		}
@@ -0,0 +1,194 @@
+package com.aldaviva.microblog_favorites.http;
+
+import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomJacksonFeature;
+import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomObjectMapperProvider;
+
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import jakarta.ws.rs.client.ClientRequestFilter;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.io.ManagedHttpClientConnectionFactory;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.io.ManagedHttpClientConnection;
+import org.apache.hc.core5.http.io.HttpConnectionFactory;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.glassfish.jersey.apache5.connector.Apache5ClientProperties;
+import org.glassfish.jersey.apache5.connector.Apache5ConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.glassfish.jersey.client.filter.EncodingFilter;
+import org.glassfish.jersey.jnh.connector.JavaNetHttpConnectorProvider;
+import org.glassfish.jersey.message.DeflateEncoder;
+import org.glassfish.jersey.message.GZipEncoder;
+
+/**
+ * <p>Builds the Jersey clients shared by all of the services.</p>
+ *
+ * <p>The connector is chosen with {@code -DhttpConnector}:</p>
+ * <ul>
+ * <li>{@code apache} (default): Apache HttpClient 5 with a keep-alive connection pool, limited by {@code -DhttpMaxConnectionsPerHost} and
+ * {@code -DhttpMaxConnections}. This is the only connector that reports how often connections are reused.</li>
+ * <li>{@code jdk}: {@link java.net.http.HttpClient}, which negotiates HTTP/2 with servers that support it and multiplexes requests over one connection
+ * per host.</li>
+ * <li>{@code urlconnection}: {@link java.net.HttpURLConnection}, the Jersey default, which pools connections internally with no limits.</li>
+ * </ul>
+ *
+ * <p>Responses are requested with gzip or deflate compression and decoded transparently, whichever connector is used. Brotli is not requested, since
+ * neither the JDK nor Jersey can decode it.</p>
+ */
+public class HttpClientFactory {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(HttpClientFactory.class);
+
+	private static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger("httpMaxConnectionsPerHost", 8);
+	private static final int MAX_CONNECTIONS = Integer.getInteger("httpMaxConnections", 32);
+	private static final TimeValue VALIDATE_AFTER_INACTIVITY = TimeValue.ofSeconds(2); // servers close idle keep-alive connections without warning
+
+	public enum Connector {
+		APACHE, JDK, URLCONNECTION
+	}
+
+	private final Connector connector;
+	private final WireLoggingFilter wireLog = new WireLoggingFilter();
+	private final AtomicLong requestsSent = new AtomicLong();
+	private final AtomicLong connectionsOpened = new AtomicLong();
+	private PoolingHttpClientConnectionManager connectionManager;
+
+	public HttpClientFactory() {
+		this(Connector.valueOf(System.getProperty("httpConnector", "apache").toUpperCase(Locale.ROOT)));
+	}
+
+	public HttpClientFactory(final Connector connector) {
+		this.connector = connector;
+		// Stop HttpURLConnection from omitting a subset of headers, like Origin in requests to Nixplay, which causes 403 errors, and Content-Length in uploads
+		// from createFixedLengthUploadClient(), which always uses HttpURLConnection. It and Jersey only read this once, so it's set before any connection
+		// is made, whichever connector the other clients use. The other connectors send every header they are given, so they don't need this.
+		System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
+	}
+
+	/**
+	 * @return a client on the selected connector, which can be shared by all services and threads
+	 */
+	public Client createClient() {
+		final ClientConfig clientConfig = createClientConfig();
+		clientConfig.register(EncodingFilter.class);
+		clientConfig.register(GZipEncoder.class);
+		clientConfig.register(DeflateEncoder.class);
+		clientConfig.register((ClientRequestFilter) requestContext -> requestsSent.incrementAndGet());
+
+		switch (connector) {
+		case APACHE:
+			connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+			    .setMaxConnPerRoute(MAX_CONNECTIONS_PER_HOST)
+			    .setMaxConnTotal(MAX_CONNECTIONS)
+			    .setDefaultConnectionConfig(ConnectionConfig.custom().setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY).build())
+			    .setConnectionFactory(new CountingConnectionFactory())
+			    .build();
+			clientConfig.connectorProvider(new Apache5ConnectorProvider());
+			clientConfig.property(Apache5ClientProperties.CONNECTION_MANAGER, connectionManager);
+			clientConfig.property(Apache5ClientProperties.DISABLE_COOKIES, true); // cookies are set explicitly per service, and serialized by UnfuckedCookieSerializer
+			clientConfig.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.BUFFERED); // send Content-Length instead of chunking the small API request bodies
+			break;
+		case JDK:
+			clientConfig.connectorProvider(new JavaNetHttpConnectorProvider());
+			break;
+		case URLCONNECTION:
+			clientConfig.connectorProvider(new HttpUrlConnectorProvider());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown connector " + connector);
+		}
+
+		LOGGER.debug("Created HTTP client using {} connector", connector.name().toLowerCase(Locale.ROOT));
+		return ClientBuilder.newClient(clientConfig);
+	}
+
+	/**
+	 * Large request bodies, like photo uploads to S3, must be streamed with a {@code Content-Length} header, because S3 rejects chunked uploads. Only
+	 * {@link java.net.HttpURLConnection} can do that, with {@link HttpUrlConnectorProvider#USE_FIXED_LENGTH_STREAMING}; the other connectors would either
+	 * buffer the entire body in memory or chunk it.
+	 * @return a client that can stream request bodies of a known length
+	 */
+	public Client createFixedLengthUploadClient() {
+		final ClientConfig clientConfig = createClientConfig();
+		clientConfig.connectorProvider(new HttpUrlConnectorProvider());
+		return ClientBuilder.newClient(clientConfig);
+	}
+
+	private ClientConfig createClientConfig() {
+		final ClientConfig clientConfig = new ClientConfig();
+		clientConfig.register(CustomObjectMapperProvider.class);
+		clientConfig.register(CustomJacksonFeature.class);
+		clientConfig.register(UnfuckedCookieSerializer.class);
+		clientConfig.property(ClientProperties.CONNECT_TIMEOUT, 5 * 1000);
+		clientConfig.property(ClientProperties.READ_TIMEOUT, 30 * 1000);
+		clientConfig.property(ClientProperties.FOLLOW_REDIRECTS, false);
+		clientConfig.register(wireLog); // set the http logger to DEBUG level in logback.xml to keep recent exchanges for diagnostics
+		return clientConfig;
+	}
+
+	/**
+	 * @return recent HTTP exchanges of all clients from this factory, if the {@code http} logger is at {@code DEBUG} level
+	 */
+	public WireLoggingFilter getWireLog() {
+		return wireLog;
+	}
+
+	/**
+	 * @return number of requests sent by clients from {@link #createClient()}, not including uploads
+	 */
+	public long getRequestsSent() {
+		return requestsSent.get();
+	}
+
+	/**
+	 * @return number of TCP connections opened by the {@code apache} connector's pool, or {@code -1} if another connector is in use
+	 */
+	public long getConnectionsOpened() {
+		return connectionManager != null ? connectionsOpened.get() : -1;
+	}
+
+	/**
+	 * @return fraction of requests from the {@code apache} connector which were sent on a connection left open by an earlier request, or {@code NaN} if
+	 * another connector is in use or no requests have been sent
+	 */
+	public double getConnectionReuseRate() {
+		final long requests = requestsSent.get();
+		return connectionManager != null && requests > 0 ? Math.max(0, requests - connectionsOpened.get()) / (double) requests : Double.NaN;
+	}
+
+	@Override
+	public String toString() {
+		if (connectionManager == null) {
+			return String.format("HTTP: %d requests sent with the %s connector, which does not report connection reuse", requestsSent.get(),
+			    connector.name().toLowerCase(Locale.ROOT));
+		}
+
+		final PoolStats poolStats = connectionManager.getTotalStats();
+		return String.format("HTTP: %d requests sent over %d connections, %.0f%% reused a pooled connection; %d connections idle, %d leased, %d requests waiting",
+		    requestsSent.get(), connectionsOpened.get(), getConnectionReuseRate() * 100, poolStats.getAvailable(), poolStats.getLeased(),
+		    poolStats.getPending());
+	}
+
+	/**
+	 * The pool asks this for a connection each time it can't lease an idle one, so the number of calls is the number of connections opened.
+	 */
+	private class CountingConnectionFactory implements HttpConnectionFactory<ManagedHttpClientConnection> {
+
+		@Override
+		public ManagedHttpClientConnection createConnection(final Socket socket) throws IOException {
+			connectionsOpened.incrementAndGet();
+			return ManagedHttpClientConnectionFactory.INSTANCE.createConnection(socket);
+		}
+
+	}
+
+}
@@ -0,0 +1,263 @@
+package com.aldaviva.microblog_favorites.http;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
+import jakarta.ws.rs.client.ClientResponseContext;
+import jakarta.ws.rs.client.ClientResponseFilter;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.ReaderInterceptor;
+import jakarta.ws.rs.ext.ReaderInterceptorContext;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * <p>HTTP wire logging that costs nothing unless the {@code http} logger is at {@code DEBUG} or finer. This replaces Jersey's {@code LoggingFeature},
+ * which allocates its whole maximum entity size for every request, even when nothing is logged.</p>
+ *
+ * <p>When enabled, the method, URI, headers, and the first {@code -DhttpWireLogSampleBytes} bytes of each request and response body are kept for the
+ * last {@code -DhttpWireLogExchanges} exchanges. Nothing is logged per request. Instead, the recent exchanges are logged when a server responds with an
+ * error status, or when {@link #logRecentExchanges(String)} is called.</p>
+ *
+ * <p>Register one instance, with the highest priority, so that it sees the final request headers and the decoded bodies.</p>
+ */
+@Priority(Integer.MAX_VALUE)
+public class WireLoggingFilter implements ClientRequestFilter, ClientResponseFilter, WriterInterceptor, ReaderInterceptor {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger("http");
+
+	private static final int SAMPLE_BYTES = Integer.getInteger("httpWireLogSampleBytes", 8 * 1024);
+	private static final String EXCHANGE_PROPERTY = WireLoggingFilter.class.getName() + ".exchange";
+	private static final List<String> REDACTED_HEADERS = List.of(HttpHeaders.AUTHORIZATION, HttpHeaders.COOKIE, "X-CSRFToken", "X-Csrf-Token");
+
+	private final Exchange[] recentExchanges = new Exchange[Integer.getInteger("httpWireLogExchanges", 32)];
+	private long exchangesStarted = 0;
+
+	@Override
+	public void filter(final ClientRequestContext requestContext) throws IOException {
+		if (LOGGER.isDebugEnabled()) {
+			final Exchange exchange = new Exchange(requestContext.getMethod(), requestContext.getUri(), formatHeaders(requestContext.getStringHeaders()));
+			requestContext.setProperty(EXCHANGE_PROPERTY, exchange);
+			synchronized (recentExchanges) {
+				exchange.id = ++exchangesStarted;
+				recentExchanges[(int) (exchange.id % recentExchanges.length)] = exchange;
+			}
+		}
+	}
+
+	@Override
+	public void aroundWriteTo(final WriterInterceptorContext context) throws IOException {
+		final Exchange exchange = (Exchange) context.getProperty(EXCHANGE_PROPERTY);
+		if (exchange != null) {
+			context.setOutputStream(new SamplingOutputStream(context.getOutputStream(), exchange.requestBody));
+		}
+		context.proceed();
+	}
+
+	@Override
+	public void filter(final ClientRequestContext requestContext, final ClientResponseContext responseContext) throws IOException {
+		final Exchange exchange = (Exchange) requestContext.getProperty(EXCHANGE_PROPERTY);
+		if (exchange == null) {
+			return;
+		}
+
+		exchange.setResponse(responseContext.getStatus(), formatHeaders(responseContext.getHeaders()));
+		if (responseContext.getStatus() >= 400) {
+			// The body usually explains the error, but it won't have been read yet, so read the sample now and put it back for the caller
+			if (responseContext.hasEntity()) {
+				final InputStream entityStream = responseContext.getEntityStream();
+				final byte[] bodyStart = entityStream.readNBytes(SAMPLE_BYTES);
+				exchange.responseBody.write(bodyStart, 0, bodyStart.length);
+				responseContext.setEntityStream(new SequenceInputStream(new ByteArrayInputStream(bodyStart), entityStream));
+			}
+			exchange.responseBodySampled = true;
+			logRecentExchanges("HTTP " + responseContext.getStatus() + " response from " + exchange.method + " " + exchange.uri);
+		}
+	}
+
+	@Override
+	public Object aroundReadFrom(final ReaderInterceptorContext context) throws IOException {
+		final Exchange exchange = (Exchange) context.getProperty(EXCHANGE_PROPERTY);
+		if (exchange != null && !exchange.responseBodySampled) {
+			exchange.responseBodySampled = true;
+			context.setInputStream(new SamplingInputStream(context.getInputStream(), exchange.responseBody));
+		}
+		return context.proceed();
+	}
+
+	/**
+	 * Log the recent exchanges, oldest first, if wire logging is enabled.
+	 * @param reason explains why they are being logged
+	 */
+	public void logRecentExchanges(final String reason) {
+		if (!LOGGER.isDebugEnabled()) {
+			return;
+		}
+
+		final StringBuilder dump = new StringBuilder(reason).append(", most recent HTTP exchanges:");
+		synchronized (recentExchanges) {
+			for (long id = Math.max(1, exchangesStarted - recentExchanges.length + 1); id <= exchangesStarted; id++) {
+				dump.append('\n');
+				recentExchanges[(int) (id % recentExchanges.length)].appendTo(dump);
+			}
+		}
+		LOGGER.debug(dump.toString());
+	}
+
+	private static String formatHeaders(final MultivaluedMap<String, String> headers) {
+		final StringBuilder formatted = new StringBuilder();
+		for (final Entry<String, List<String>> header : headers.entrySet()) {
+			final boolean redacted = REDACTED_HEADERS.stream().anyMatch(header.getKey()::equalsIgnoreCase);
+			for (final String value : header.getValue()) {
+				formatted.append(header.getKey()).append(": ").append(redacted ? "(redacted)" : value).append('\n');
+			}
+		}
+		return formatted.toString();
+	}
+
+	private static final class Exchange {
+
+		final String method;
+		final URI uri;
+		final String requestHeaders;
+		final BodySample requestBody = new BodySample();
+		final BodySample responseBody = new BodySample();
+		long id;
+		volatile boolean responseBodySampled = false;
+		private int status = 0;
+		private String responseHeaders;
+
+		Exchange(final String method, final URI uri, final String requestHeaders) {
+			this.method = method;
+			this.uri = uri;
+			this.requestHeaders = requestHeaders;
+		}
+
+		synchronized void setResponse(final int status, final String responseHeaders) {
+			this.status = status;
+			this.responseHeaders = responseHeaders;
+		}
+
+		synchronized void appendTo(final StringBuilder dump) {
+			dump.append('#').append(id).append(" > ").append(method).append(' ').append(uri).append('\n');
+			appendLines(dump, "> ", requestHeaders);
+			requestBody.appendTo(dump, "> ");
+			if (status == 0) {
+				dump.append("< (no response yet)\n");
+			} else {
+				dump.append("< ").append(status).append('\n');
+				appendLines(dump, "< ", responseHeaders);
+				responseBody.appendTo(dump, "< ");
+			}
+		}
+
+		private static void appendLines(final StringBuilder dump, final String prefix, final String lines) {
+			for (final String line : lines.split("\n")) {
+				if (!line.isEmpty()) {
+					dump.append(prefix).append(line).append('\n');
+				}
+			}
+		}
+	}
+
+	/**
+	 * The first {@link #SAMPLE_BYTES} bytes of a body, and its total length so far. The buffer is only allocated once the body starts.
+	 */
+	private static final class BodySample {
+
+		private ByteArrayOutputStream sample;
+		private long totalBytes = 0;
+
+		synchronized void write(final byte[] bytes, final int offset, final int length) {
+			if (length <= 0) {
+				return;
+			}
+			if (sample == null) {
+				sample = new ByteArrayOutputStream(Math.min(length, SAMPLE_BYTES));
+			}
+			sample.write(bytes, offset, (int) Math.max(0, Math.min(length, SAMPLE_BYTES - totalBytes)));
+			totalBytes += length;
+		}
+
+		synchronized void appendTo(final StringBuilder dump, final String prefix) {
+			if (sample == null) {
+				return;
+			}
+			dump.append(prefix).append('\n');
+			final String text = new String(sample.toByteArray(), StandardCharsets.UTF_8);
+			for (final String line : text.split("\r?\n")) {
+				dump.append(prefix);
+				for (int i = 0; i < line.length(); i++) {
+					final char c = line.charAt(i);
+					dump.append(Character.isISOControl(c) && c != '\t' ? '.' : c);
+				}
+				dump.append('\n');
+			}
+			if (totalBytes > sample.size()) {
+				dump.append(prefix).append("(first ").append(sample.size()).append(" of ").append(totalBytes).append(" bytes)\n");
+			}
+		}
+	}
+
+	private static final class SamplingOutputStream extends FilterOutputStream {
+
+		private final BodySample sample;
+
+		SamplingOutputStream(final OutputStream out, final BodySample sample) {
+			super(out);
+			this.sample = sample;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			sample.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+			out.write(bytes, offset, length);
+			sample.write(bytes, offset, length);
+		}
+	}
+
+	private static final class SamplingInputStream extends FilterInputStream {
+
+		private final BodySample sample;
+
+		SamplingInputStream(final InputStream in, final BodySample sample) {
+			super(in);
+			this.sample = sample;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = in.read();
+			if (b != -1) {
+				sample.write(new byte[] { (byte) b }, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			final int bytesRead = in.read(buffer, offset, length);
+			sample.write(buffer, offset, bytesRead);
+			return bytesRead;
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package com.aldaviva.microblog_favorites.jpeg;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Limits how much memory screenshots can use at once, and recycles the large buffers used to write them.</p>
+ *
+ * <p><b>In-flight budget:</b> every screenshot holds a {@link Reservation} from just before it is rendered until it has been written to disk. Once the
+ * reserved bytes reach the budget, new renders wait until earlier screenshots are saved, so a slow disk throttles the browsers instead of filling the
+ * heap. The size of a screenshot isn't known until it has been rendered, so reservations start at the average size of recent screenshots
+ * and are corrected afterwards.</p>
+ *
+ * <p><b>Staging buffers:</b> writing a heap buffer to a channel makes the JDK copy it into a temporary direct buffer, which it caches on each thread with
+ * no size limit. Instead, images are copied into direct buffers from this pool, which are rounded up to a power of two so they can be reused for
+ * images of similar sizes, and which are dropped instead of pooled once the pool reaches its size limit.</p>
+ *
+ * <p>Thread-safe, and meant to be shared by every pipeline in the process.</p>
+ */
+public class ImageBufferPool {
+
+	private static final int MIN_BUFFER_SIZE = 256 * 1024;
+	private static final long INITIAL_IMAGE_SIZE_ESTIMATE = 2 * 1024 * 1024;
+
+	private final long maxInFlightBytes;
+	private final long maxPooledBytes;
+	private final Map<Integer, Queue<ByteBuffer>> pooledBuffersBySize = new ConcurrentHashMap<>();
+	private final AtomicLong pooledBytes = new AtomicLong();
+	private final AtomicLong bufferHits = new AtomicLong();
+	private final AtomicLong bufferMisses = new AtomicLong();
+	private final AtomicLong peakPooledBytes = new AtomicLong();
+	private final AtomicLong averageImageSize = new AtomicLong(INITIAL_IMAGE_SIZE_ESTIMATE);
+
+	private long inFlightBytes = 0; // guarded by this
+	private long peakInFlightBytes = 0; // guarded by this
+	private long throttledRenders = 0; // guarded by this
+
+	/**
+	 * @param maxInFlightBytes renders wait while screenshots which have not left the pipeline yet add up to this many bytes
+	 * @param maxPooledBytes total capacity of idle staging buffers to keep for reuse
+	 */
+	public ImageBufferPool(final long maxInFlightBytes, final long maxPooledBytes) {
+		this.maxInFlightBytes = maxInFlightBytes;
+		this.maxPooledBytes = maxPooledBytes;
+	}
+
+	/**
+	 * Reserve room for a screenshot that is about to be rendered, waiting if the in-flight budget is used up. A single screenshot is always allowed,
+	 * even if it is larger than the whole budget, so that a huge image can't stall the pipeline forever.
+	 * @return a reservation for an image of average size, which should be {@link Reservation#resize resized} once the image exists, and must be
+	 * {@link Reservation#close closed} once the image is no longer needed
+	 */
+	public Reservation reserve() throws InterruptedException {
+		final long estimatedSize = averageImageSize.get();
+		synchronized (this) {
+			if (inFlightBytes > 0 && inFlightBytes + estimatedSize > maxInFlightBytes) {
+				throttledRenders++;
+				do {
+					wait();
+				} while (inFlightBytes > 0 && inFlightBytes + estimatedSize > maxInFlightBytes);
+			}
+			addInFlightBytes(estimatedSize);
+		}
+		return new Reservation(estimatedSize);
+	}
+
+	private synchronized void addInFlightBytes(final long bytes) {
+		inFlightBytes += bytes;
+		peakInFlightBytes = Math.max(peakInFlightBytes, inFlightBytes);
+		if (bytes < 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return an empty direct buffer with at least the given capacity and its limit set to that capacity, which should be {@link #recycle recycled}
+	 * after use
+	 */
+	public ByteBuffer acquire(final int capacity) {
+		final int bufferSize = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1);
+		final ByteBuffer pooledBuffer = getPool(bufferSize).poll();
+		final ByteBuffer buffer;
+		if (pooledBuffer != null) {
+			pooledBytes.addAndGet(-bufferSize);
+			bufferHits.incrementAndGet();
+			buffer = pooledBuffer;
+		} else {
+			bufferMisses.incrementAndGet();
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+		}
+		buffer.clear().limit(capacity);
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer from {@link #acquire(int)} to the pool, or let it be garbage collected if the pool is full. The buffer must not be used
+	 * afterwards.
+	 */
+	public void recycle(final ByteBuffer buffer) {
+		final int bufferSize = buffer.capacity();
+		final long newPooledBytes = pooledBytes.addAndGet(bufferSize);
+		if (newPooledBytes <= maxPooledBytes) {
+			peakPooledBytes.accumulateAndGet(newPooledBytes, Math::max);
+			getPool(bufferSize).offer(buffer);
+		} else {
+			pooledBytes.addAndGet(-bufferSize);
+		}
+	}
+
+	private Queue<ByteBuffer> getPool(final int bufferSize) {
+		return pooledBuffersBySize.computeIfAbsent(bufferSize, size -> new ConcurrentLinkedQueue<>());
+	}
+
+	/**
+	 * @return fraction of {@link #acquire(int)} calls that reused a pooled buffer, between 0 and 1
+	 */
+	public double getHitRate() {
+		final long hits = bufferHits.get();
+		final long total = hits + bufferMisses.get();
+		return total > 0 ? (double) hits / total : 0;
+	}
+
+	public synchronized long getPeakInFlightBytes() {
+		return peakInFlightBytes;
+	}
+
+	public long getPeakPooledBytes() {
+		return peakPooledBytes.get();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Image buffers: %.0f%% pool hit rate (%d of %d), peak %d MB pooled; in-flight images peaked at %d MB of %d MB budget, %d renders waited for room",
+		    getHitRate() * 100, bufferHits.get(), bufferHits.get() + bufferMisses.get(), peakPooledBytes.get() / 1024 / 1024,
+		    peakInFlightBytes / 1024 / 1024, maxInFlightBytes / 1024 / 1024, throttledRenders);
+	}
+
+	/**
+	 * Bytes of the in-flight budget held by one screenshot. Closing it more than once has no effect.
+	 */
+	public class Reservation implements AutoCloseable {
+
+		private long reservedBytes;
+		private boolean closed = false;
+
+		private Reservation(final long reservedBytes) {
+			this.reservedBytes = reservedBytes;
+		}
+
+		/**
+		 * Correct the reservation to the real size of the image. Never waits, even if this exceeds the budget, since the image already exists.
+		 */
+		public synchronized void resize(final long imageSize) {
+			if (!closed) {
+				addInFlightBytes(imageSize - reservedBytes);
+				reservedBytes = imageSize;
+				averageImageSize.accumulateAndGet(imageSize, (average, size) -> (average * 7 + size) / 8);
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!closed) {
+				closed = true;
+				addInFlightBytes(-reservedBytes);
+			}
+		}
+	}
+
+}
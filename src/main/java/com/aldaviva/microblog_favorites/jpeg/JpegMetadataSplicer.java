@@ -0,0 +1,206 @@
+package com.aldaviva.microblog_favorites.jpeg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.common.bytesource.ByteSourceArray;
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcBlock;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcConstants;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcParser;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcRecord;
+import org.apache.commons.imaging.formats.jpeg.iptc.JpegIptcRewriter;
+import org.apache.commons.imaging.formats.jpeg.iptc.PhotoshopApp13Data;
+import org.apache.commons.imaging.formats.tiff.write.TiffImageWriterLossy;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+/**
+ * <p>Adds EXIF and IPTC metadata to a JPEG in one pass, without copying the image.</p>
+ *
+ * <p>The commons-imaging rewriters each parse the whole file and write a complete new copy of it, so tagging a screenshot with both took two parses and
+ * four full-size copies. Instead, this builds the new APP1 (EXIF) and APP13 (IPTC) segments once and returns a {@link SplicedJpeg} that points at the
+ * original bytes on either side of them.</p>
+ *
+ * <p>The result is byte-for-byte identical to running {@link JpegIptcRewriter#writeIPTC} and then {@link ExifRewriter#updateExifMetadataLossless} on an
+ * image without existing EXIF or IPTC metadata, which is what Chromium's screenshots look like:</p>
+ * <ol>
+ * <li>SOI</li>
+ * <li>APP0 (JFIF), if it is the first segment</li>
+ * <li><b>new APP1 (EXIF)</b></li>
+ * <li>any other original APPn segments</li>
+ * <li><b>new APP13 (IPTC)</b></li>
+ * <li>the rest of the original file, starting with the first non-APPn segment, through the scan data and EOI</li>
+ * </ol>
+ * <p>Any other image, such as one that already has metadata or isn't structured the way the rewriters expect, falls back to the rewriters.</p>
+ */
+public final class JpegMetadataSplicer {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(JpegMetadataSplicer.class);
+
+	private static final int MARKER_PREFIX = 0xff;
+	private static final int SOI_MARKER = 0xd8;
+	private static final int SOS_MARKER = 0xda;
+	private static final int APP0_MARKER = 0xe0;
+	private static final int APP1_MARKER = 0xe1;
+	private static final int APP13_MARKER = 0xed;
+	private static final int APP15_MARKER = 0xef;
+	private static final int MAX_SEGMENT_LENGTH = 0xffff;
+	private static final byte[] EXIF_IDENTIFIER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PHOTOSHOP_IDENTIFIER = "Photoshop 3.0\0".getBytes(StandardCharsets.US_ASCII);
+
+	private static final ExifRewriter EXIF_REWRITER = new ExifRewriter();
+
+	private JpegMetadataSplicer() {
+	}
+
+	/**
+	 * Add EXIF and IPTC metadata to a JPEG.
+	 * @param untaggedImage JPEG bytes, which must not be modified while the result is in use
+	 * @param exif EXIF tags to write in a new APP1 segment
+	 * @param iptcRecords IPTC records to write in a new Photoshop APP13 segment
+	 */
+	public static SplicedJpeg addMetadata(final byte[] untaggedImage, final TiffOutputSet exif, final List<IptcRecord> iptcRecords) throws ImageReadException,
+	    ImageWriteException, IOException {
+		final SplicedJpeg splicedJpeg = splice(untaggedImage, exif, iptcRecords);
+		if (splicedJpeg != null) {
+			return splicedJpeg;
+		} else {
+			LOGGER.debug("JPEG can't be spliced, falling back to rewriting it");
+			return new SplicedJpeg(ByteBuffer.wrap(rewrite(untaggedImage, exif, iptcRecords)));
+		}
+	}
+
+	/**
+	 * @return the image with metadata segments spliced in, or {@code null} if the image can't be spliced identically to the rewriters' output
+	 */
+	static SplicedJpeg splice(final byte[] jpeg, final TiffOutputSet exif, final List<IptcRecord> iptcRecords) throws ImageWriteException, IOException {
+		if (jpeg.length < 4 || (jpeg[0] & 0xff) != MARKER_PREFIX || (jpeg[1] & 0xff) != SOI_MARKER) {
+			return null;
+		}
+
+		int firstSegmentEnd = -1;
+		boolean isFirstSegmentApp0 = false;
+		int lastAppSegmentEnd = -1;
+		int position = 2;
+		while (true) {
+			if (position + 4 > jpeg.length || (jpeg[position] & 0xff) != MARKER_PREFIX) {
+				return null; // truncated, or padding or standalone markers that the rewriters' parser may treat differently
+			}
+
+			final int marker = jpeg[position + 1] & 0xff;
+			if (marker == SOS_MARKER) {
+				break;
+			}
+
+			final int segmentLength = ((jpeg[position + 2] & 0xff) << 8) | (jpeg[position + 3] & 0xff); // includes the length bytes, but not the marker
+			final int segmentDataStart = position + 4;
+			final int segmentEnd = position + 2 + segmentLength;
+			if (segmentLength < 2 || segmentEnd > jpeg.length) {
+				return null;
+			}
+
+			if (marker == APP1_MARKER && startsWith(jpeg, segmentDataStart, segmentEnd, EXIF_IDENTIFIER)) {
+				return null; // existing EXIF data would be merged by the rewriter
+			} else if (marker == APP13_MARKER && startsWith(jpeg, segmentDataStart, segmentEnd, PHOTOSHOP_IDENTIFIER)) {
+				return null; // existing IPTC data would be replaced by the rewriter
+			}
+
+			if (firstSegmentEnd == -1) {
+				firstSegmentEnd = segmentEnd;
+				isFirstSegmentApp0 = marker == APP0_MARKER;
+			}
+			if (marker >= APP0_MARKER && marker <= APP15_MARKER) {
+				lastAppSegmentEnd = segmentEnd;
+			}
+			position = segmentEnd;
+		}
+
+		if (lastAppSegmentEnd == -1) {
+			return null; // the IPTC rewriter refuses images without any APPn segments
+		}
+
+		final ByteBuffer exifSegment = createSegment(APP1_MARKER, createExifSegmentData(exif));
+		final ByteBuffer iptcSegment = createSegment(APP13_MARKER, createIptcSegmentData(iptcRecords));
+		if (exifSegment == null || iptcSegment == null) {
+			return null;
+		}
+
+		final int exifSegmentPosition = isFirstSegmentApp0 ? firstSegmentEnd : 2;
+		final List<ByteBuffer> pieces = new ArrayList<>(5);
+		pieces.add(ByteBuffer.wrap(jpeg, 0, exifSegmentPosition));
+		pieces.add(exifSegment);
+		if (lastAppSegmentEnd > exifSegmentPosition) {
+			pieces.add(ByteBuffer.wrap(jpeg, exifSegmentPosition, lastAppSegmentEnd - exifSegmentPosition));
+		}
+		pieces.add(iptcSegment);
+		pieces.add(ByteBuffer.wrap(jpeg, lastAppSegmentEnd, jpeg.length - lastAppSegmentEnd));
+		return new SplicedJpeg(pieces.toArray(new ByteBuffer[0]));
+	}
+
+	/**
+	 * The original implementation, which makes several full copies of the image, but handles images that already contain metadata.
+	 */
+	static byte[] rewrite(final byte[] untaggedImage, final TiffOutputSet exif, final List<IptcRecord> iptcRecords) throws ImageReadException,
+	    ImageWriteException, IOException {
+		final PhotoshopApp13Data iptcData = new PhotoshopApp13Data(iptcRecords, Collections.emptyList());
+		final ByteArrayOutputStream bytesWithIptc = new ByteArrayOutputStream();
+		new JpegIptcRewriter().writeIPTC(new ByteSourceArray(untaggedImage), bytesWithIptc, iptcData);
+
+		final ByteArrayOutputStream bytesWithExif = new ByteArrayOutputStream();
+		EXIF_REWRITER.updateExifMetadataLossless(bytesWithIptc.toByteArray(), bytesWithExif, exif);
+		return bytesWithExif.toByteArray();
+	}
+
+	/**
+	 * Same as {@link ExifRewriter} writing a new segment for an image without EXIF data: the EXIF identifier followed by a TIFF structure.
+	 */
+	private static byte[] createExifSegmentData(final TiffOutputSet exif) throws ImageWriteException, IOException {
+		final ByteArrayOutputStream segmentData = new ByteArrayOutputStream();
+		segmentData.write(EXIF_IDENTIFIER);
+		new TiffImageWriterLossy(exif.byteOrder).write(segmentData, exif);
+		return segmentData.toByteArray();
+	}
+
+	/**
+	 * Same as {@link JpegIptcRewriter}: a Photoshop image resource block containing only the IPTC records, with an empty name.
+	 */
+	private static byte[] createIptcSegmentData(final List<IptcRecord> iptcRecords) throws ImageWriteException, IOException {
+		final IptcParser iptcParser = new IptcParser();
+		final IptcBlock iptcBlock = new IptcBlock(IptcConstants.IMAGE_RESOURCE_BLOCK_IPTC_DATA, new byte[0], iptcParser.writeIPTCBlock(iptcRecords));
+		return iptcParser.writePhotoshopApp13Segment(new PhotoshopApp13Data(iptcRecords, Collections.singletonList(iptcBlock)));
+	}
+
+	/**
+	 * @return marker, length, and data, or {@code null} if the data is too long to fit in one segment
+	 */
+	private static ByteBuffer createSegment(final int marker, final byte[] segmentData) {
+		final int segmentLength = segmentData.length + 2;
+		if (segmentLength > MAX_SEGMENT_LENGTH) {
+			return null;
+		}
+
+		final ByteBuffer segment = ByteBuffer.allocate(segmentLength + 2);
+		segment.put((byte) MARKER_PREFIX).put((byte) marker).putShort((short) segmentLength).put(segmentData);
+		segment.flip();
+		return segment;
+	}
+
+	private static boolean startsWith(final byte[] haystack, final int start, final int end, final byte[] needle) {
+		if (end - start < needle.length) {
+			return false;
+		}
+		for (int i = 0; i < needle.length; i++) {
+			if (haystack[start + i] != needle[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
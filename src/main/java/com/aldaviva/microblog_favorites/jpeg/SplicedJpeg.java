@@ -0,0 +1,106 @@
+package com.aldaviva.microblog_favorites.jpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>A JPEG file made of several pieces, such as the regions of an original image with new metadata segments between them, which are only concatenated
+ * when they are written to their destination. This avoids copying multi-megabyte screenshots into a new array just to insert a few hundred bytes of
+ * metadata.</p>
+ *
+ * <p>Can be written any number of times, from any number of threads.</p>
+ */
+public class SplicedJpeg {
+
+	private final ByteBuffer[] pieces;
+	private final long length;
+
+	/**
+	 * @param pieces regions of the file, in order, which must not be modified afterwards
+	 */
+	public SplicedJpeg(final ByteBuffer... pieces) {
+		this.pieces = pieces;
+		long length = 0;
+		for (final ByteBuffer piece : pieces) {
+			length += piece.remaining();
+		}
+		this.length = length;
+	}
+
+	/**
+	 * @return size of the file, in bytes
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Write the file with one gathering write, if the channel supports it, such as a {@link java.nio.channels.FileChannel}.
+	 */
+	public void writeTo(final WritableByteChannel destination) throws IOException {
+		final ByteBuffer[] buffers = duplicatePieces();
+		if (destination instanceof GatheringByteChannel) {
+			final GatheringByteChannel gatheringDestination = (GatheringByteChannel) destination;
+			long remaining = length;
+			while (remaining > 0) {
+				remaining -= gatheringDestination.write(buffers);
+			}
+		} else {
+			for (final ByteBuffer buffer : buffers) {
+				while (buffer.hasRemaining()) {
+					destination.write(buffer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy the file into one direct buffer from the given pool, and write that to the channel. Writing heap buffers to a channel would make the JDK
+	 * copy them into temporary direct buffers anyway, which it caches on each thread without any limit.
+	 */
+	public void writeTo(final WritableByteChannel destination, final ImageBufferPool stagingBuffers) throws IOException {
+		final ByteBuffer stagingBuffer = stagingBuffers.acquire(Math.toIntExact(length));
+		try {
+			for (final ByteBuffer piece : duplicatePieces()) {
+				stagingBuffer.put(piece);
+			}
+			stagingBuffer.flip();
+			while (stagingBuffer.hasRemaining()) {
+				destination.write(stagingBuffer);
+			}
+		} finally {
+			stagingBuffers.recycle(stagingBuffer);
+		}
+	}
+
+	public void writeTo(final OutputStream destination) throws IOException {
+		for (final ByteBuffer piece : pieces) {
+			if (piece.hasArray()) {
+				destination.write(piece.array(), piece.arrayOffset() + piece.position(), piece.remaining());
+			} else {
+				final ByteBuffer buffer = piece.duplicate();
+				final byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+				while (buffer.hasRemaining()) {
+					final int chunkLength = Math.min(buffer.remaining(), chunk.length);
+					buffer.get(chunk, 0, chunkLength);
+					destination.write(chunk, 0, chunkLength);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writing a buffer moves its position, so each write works on its own copies of the buffers' positions and limits, which share the pieces' contents.
+	 */
+	private ByteBuffer[] duplicatePieces() {
+		final ByteBuffer[] duplicates = new ByteBuffer[pieces.length];
+		for (int i = 0; i < pieces.length; i++) {
+			duplicates[i] = pieces[i].duplicate();
+		}
+		return duplicates;
+	}
+
+}
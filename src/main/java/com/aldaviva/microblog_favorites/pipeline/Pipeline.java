@@ -0,0 +1,120 @@
+package com.aldaviva.microblog_favorites.pipeline;
+
+import com.aldaviva.microblog_favorites.pipeline.PipelineStage.Worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * <p>A chain of {@link PipelineStage}s connected by bounded queues. Each stage has its own worker threads, so a slow stage only blocks the stages upstream of
+ * it once its input queue fills up, instead of letting work pile up in memory.</p>
+ *
+ * <p>Build stages from the last one to the first one, since each stage needs a reference to its downstream stage. Then {@link PipelineStage#submit(Object)}
+ * items to the first stage, call {@link PipelineStage#finish()} on it when there are no more items, and wait for every stage to drain with
+ * {@link #await()}.</p>
+ *
+ * <p>If any worker throws an exception, the whole pipeline is aborted: all of its threads are interrupted, and {@link #await()} and
+ * {@link PipelineStage#submit(Object)} rethrow the first failure. A {@link PipelineStage#submit(Object)} call that is waiting for room in a full queue
+ * also stops waiting and rethrows it.</p>
+ */
+public class Pipeline {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(Pipeline.class);
+
+	private final String name;
+	private final List<PipelineStage<?, ?>> stages = new ArrayList<>();
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+	public Pipeline(final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Create and start a stage.
+	 * @param stageName used in thread names and log messages
+	 * @param parallelism number of threads that process items from this stage's queue at the same time
+	 * @param queueCapacity number of items that can wait in this stage's input queue before {@link PipelineStage#submit(Object)} blocks
+	 * @param workerFactory called once on each of the stage's threads, so that workers can hold resources which are confined to one thread
+	 * @param downstream the stage that receives this stage's output, or {@code null} if this is the last stage
+	 */
+	public synchronized <IN, OUT> PipelineStage<IN, OUT> addStage(final String stageName, final int parallelism, final int queueCapacity,
+	    final Supplier<? extends Worker<IN, OUT>> workerFactory, final PipelineStage<? super OUT, ?> downstream) {
+		return startStage(new PipelineStage<>(this, name + " " + stageName, parallelism, queueCapacity, 0, workerFactory, downstream));
+	}
+
+	/**
+	 * Create and start a stage whose workers process several items at once. Each time a worker is ready, it takes the items that are already waiting in
+	 * the queue, up to {@code maxBatchSize}, instead of waiting for a full batch.
+	 * @param maxBatchSize should be no more than {@code queueCapacity}, since batches are taken from the queue
+	 * @see #addStage(String, int, int, Supplier, PipelineStage)
+	 */
+	public synchronized <IN, OUT> PipelineStage<IN, OUT> addBatchStage(final String stageName, final int parallelism, final int queueCapacity,
+	    final int maxBatchSize, final Supplier<? extends Worker<List<IN>, OUT>> workerFactory, final PipelineStage<? super OUT, ?> downstream) {
+		return startStage(new PipelineStage<>(this, name + " " + stageName, parallelism, queueCapacity, Math.max(1, maxBatchSize), workerFactory, downstream));
+	}
+
+	private <IN, OUT> PipelineStage<IN, OUT> startStage(final PipelineStage<IN, OUT> stage) {
+		stages.add(stage);
+		stage.start();
+		return stage;
+	}
+
+	/**
+	 * Block until every stage has processed all of its items.
+	 * @throws RuntimeException if any stage failed
+	 */
+	public void await() {
+		final List<PipelineStage<?, ?>> stagesSnapshot;
+		synchronized (this) {
+			stagesSnapshot = new ArrayList<>(stages);
+		}
+
+		try {
+			for (final PipelineStage<?, ?> stage : stagesSnapshot) {
+				stage.join();
+			}
+		} catch (final InterruptedException e) {
+			fail(e);
+			Thread.currentThread().interrupt();
+		}
+
+		throwIfFailed();
+
+		for (final PipelineStage<?, ?> stage : stagesSnapshot) {
+			LOGGER.info("{}", stage);
+		}
+	}
+
+	/**
+	 * Stop all stages because of a failure outside of the pipeline, such as in the code that submits items to it. {@link #await()} will rethrow the cause.
+	 * Does nothing if the pipeline already failed.
+	 */
+	public void abort(final Throwable cause) {
+		fail(cause);
+	}
+
+	void fail(final Throwable cause) {
+		if (failure.compareAndSet(null, cause)) {
+			LOGGER.debug("{} pipeline failed, stopping all stages", name);
+			synchronized (this) {
+				for (final PipelineStage<?, ?> stage : stages) {
+					stage.interrupt();
+				}
+			}
+		}
+	}
+
+	boolean isFailed() {
+		return failure.get() != null;
+	}
+
+	void throwIfFailed() {
+		final Throwable cause = failure.get();
+		if (cause != null) {
+			throw new RuntimeException(name + " pipeline failed", cause);
+		}
+	}
+
+}
@@ -0,0 +1,180 @@
+package com.aldaviva.microblog_favorites.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * One step of a {@link Pipeline}, with its own bounded input queue and worker threads. Create instances with
+ * {@link Pipeline#addStage(String, int, int, Supplier, PipelineStage)} or {@link Pipeline#addBatchStage(String, int, int, int, Supplier, PipelineStage)}.
+ */
+public class PipelineStage<IN, OUT> {
+
+	private static final Object END_OF_STREAM = new Object();
+	private static final long FAILURE_CHECK_INTERVAL_MILLIS = 100;
+
+	/**
+	 * Processes items for one thread of a stage. Each thread gets its own instance, which is closed when the thread finishes.
+	 */
+	@FunctionalInterface
+	public interface Worker<IN, OUT> extends AutoCloseable {
+
+		/**
+		 * @return the item to pass to the downstream stage, or {@code null} to not pass anything
+		 */
+		OUT process(IN item) throws Exception;
+
+		@Override
+		default void close() throws Exception {
+		}
+	}
+
+	private final Pipeline pipeline;
+	private final String name;
+	private final int parallelism;
+	private final BlockingQueue<Object> inputQueue;
+	private final int maxBatchSize; // 0 if each worker call processes a single item instead of a list
+	private final Supplier<? extends Worker<?, OUT>> workerFactory;
+	private final PipelineStage<? super OUT, ?> downstream;
+	private final List<Thread> threads;
+	private final AtomicInteger runningThreads;
+	private final AtomicLong itemsProcessed = new AtomicLong();
+	private final AtomicLong busyNanos = new AtomicLong();
+
+	PipelineStage(final Pipeline pipeline, final String name, final int parallelism, final int queueCapacity, final int maxBatchSize,
+	    final Supplier<? extends Worker<?, OUT>> workerFactory, final PipelineStage<? super OUT, ?> downstream) {
+		this.pipeline = pipeline;
+		this.name = name;
+		this.parallelism = Math.max(1, parallelism);
+		inputQueue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity) + this.parallelism); // leave room for the end-of-stream markers
+		this.maxBatchSize = maxBatchSize;
+		this.workerFactory = workerFactory;
+		this.downstream = downstream;
+		threads = new ArrayList<>(this.parallelism);
+		runningThreads = new AtomicInteger(this.parallelism);
+	}
+
+	void start() {
+		for (int threadId = 1; threadId <= parallelism; threadId++) {
+			final Thread thread = new Thread(this::runWorker, name + " " + threadId);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Add an item to this stage's queue, blocking while the queue is full.
+	 * @throws RuntimeException if the pipeline failed, including while this was waiting for room in the queue
+	 */
+	public void submit(final IN item) {
+		pipeline.throwIfFailed();
+		try {
+			if (!enqueue(item)) {
+				pipeline.throwIfFailed();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pipeline.fail(e);
+			pipeline.throwIfFailed();
+		}
+	}
+
+	/**
+	 * Signal that no more items will be submitted. Once this stage processes the items already in its queue, it finishes its downstream stage too.
+	 */
+	public void finish() {
+		try {
+			for (int threadId = 0; threadId < parallelism; threadId++) {
+				if (!enqueue(END_OF_STREAM)) {
+					break;
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pipeline.fail(e);
+		}
+	}
+
+	/**
+	 * Wait for room in the queue, but give up if the pipeline fails in the meantime, because its workers stop taking items, so the queue may never drain.
+	 * Threads outside of the pipeline, like the one listing favorites, are not interrupted when it fails, so they have to check for the failure themselves.
+	 * @return {@code false} if the pipeline failed before the item was added
+	 */
+	private boolean enqueue(final Object item) throws InterruptedException {
+		while (!pipeline.isFailed()) {
+			if (inputQueue.offer(item, FAILURE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void runWorker() {
+		try (Worker<Object, OUT> worker = (Worker<Object, OUT>) workerFactory.get()) {
+			Object item;
+			boolean endOfStream = false;
+			while (!endOfStream && (item = inputQueue.take()) != END_OF_STREAM) {
+				int itemCount = 1;
+				if (maxBatchSize > 0) {
+					// add whatever else is already waiting, without waiting for more to arrive
+					final List<Object> batch = new ArrayList<>(maxBatchSize);
+					batch.add(item);
+					Object nextItem;
+					while (batch.size() < maxBatchSize && (nextItem = inputQueue.poll()) != null) {
+						if (nextItem == END_OF_STREAM) {
+							endOfStream = true;
+							break;
+						}
+						batch.add(nextItem);
+					}
+					item = batch;
+					itemCount = batch.size();
+				}
+
+				final long startTime = System.nanoTime();
+				final OUT output = worker.process(item);
+				busyNanos.addAndGet(System.nanoTime() - startTime);
+				itemsProcessed.addAndGet(itemCount);
+
+				if (output != null && downstream != null) {
+					downstream.submit(output);
+				}
+			}
+		} catch (final Throwable e) { // includes InterruptedException when another stage aborted the pipeline
+			pipeline.fail(e);
+		} finally {
+			if (runningThreads.decrementAndGet() == 0 && downstream != null && !pipeline.isFailed()) {
+				downstream.finish();
+			}
+		}
+	}
+
+	void join() throws InterruptedException {
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	void interrupt() {
+		for (final Thread thread : threads) {
+			thread.interrupt();
+		}
+	}
+
+	public long getItemsProcessed() {
+		return itemsProcessed.get();
+	}
+
+	@Override
+	public String toString() {
+		final long items = itemsProcessed.get();
+		return String.format("%s: %d items with %d threads, %d ms per item", name, items, parallelism, items > 0 ? busyNanos.get() / items / 1_000_000 : 0);
+	}
+
+}
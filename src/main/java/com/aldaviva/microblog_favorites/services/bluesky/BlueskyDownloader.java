@@ -5,6 +5,9 @@ import static com.microsoft.playwright.assertions.PlaywrightAssertions.*;
 import com.aldaviva.microblog_favorites.ConfigurationFactory;
 import com.aldaviva.microblog_favorites.FavoritePost;
 import com.aldaviva.microblog_favorites.FavoritesDownloader;
+import com.aldaviva.microblog_favorites.FavoritesPageIterator;
+import com.aldaviva.microblog_favorites.PostIdSet;
+import com.aldaviva.microblog_favorites.RequestBlockingRules;
 import com.aldaviva.microblog_favorites.services.bluesky.BlueskySchema.FavoritesListResponse;
 import com.aldaviva.microblog_favorites.services.bluesky.BlueskySchema.FeedItem;
 import com.aldaviva.microblog_favorites.services.bluesky.BlueskySchema.Post;
@@ -16,8 +19,10 @@ import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.core.UriBuilder;
 import java.net.PasswordAuthentication;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.regex.Pattern;
 import org.glassfish.jersey.uri.UriComponent;
 
 public class BlueskyDownloader extends FavoritesDownloader<FavoritePost> {
@@ -40,6 +45,11 @@ public class BlueskyDownloader extends FavoritesDownloader<FavoritePost> {
 		return "Bluesky";
 	}
 
+	@Override
+	protected PostIdSet.Encoding getPostIdEncoding() {
+		return PostIdSet.Encoding.TID;
+	}
+
 	@Override
 	public void signIn(final Page page) {
 		if (handle != null) {
@@ -82,32 +92,37 @@ public class BlueskyDownloader extends FavoritesDownloader<FavoritePost> {
 	}
 
 	@Override
-	protected List<FavoritePost> listAllFavorites() {
-		final List<FavoritePost> favorites = new ArrayList<>();
-
-		String cursor = null;
-		List<FeedItem> posts;
-		do {
-			final FavoritesListResponse favoritesResponseBody = bluesky.listFavorites(handle, 100, cursor);
-			posts = favoritesResponseBody.feed;
-
-			for (final FeedItem feedItem : posts) {
-				final Post post = feedItem.post;
-				final FavoritePost favorite = new FavoritePost();
-				favorites.add(favorite);
-
-				favorite.setAuthorName(Optional.ofNullable(post.author.displayName).orElse(post.author.handle));
-				favorite.setAuthorHandle(post.author.handle);
-				favorite.setDate(post.record.createdAt);
-				favorite.setBody(post.record.text);
-				favorite.setId(UriComponent.decodePath(post.uri, true).get(1).getPath()); // https://atproto.com/specs/record-key
-				favorite.setUrl(POST_PAGE_URI.build(post.author.did, favorite.getId()));
+	protected Iterator<List<FavoritePost>> listFavoritePages() {
+		return new FavoritesPageIterator<>() {
+
+			private String cursor = null;
+
+			@Override
+			protected List<FavoritePost> fetchNextPage() {
+				final FavoritesListResponse favoritesResponseBody = bluesky.listFavorites(handle, 100, cursor);
+				final List<FeedItem> posts = favoritesResponseBody.feed;
+				if (posts.isEmpty()) {
+					return null;
+				}
+
+				final List<FavoritePost> favorites = new ArrayList<>(posts.size());
+				for (final FeedItem feedItem : posts) {
+					final Post post = feedItem.post;
+					final FavoritePost favorite = new FavoritePost();
+					favorites.add(favorite);
+
+					favorite.setAuthorName(Optional.ofNullable(post.author.displayName).orElse(post.author.handle));
+					favorite.setAuthorHandle(post.author.handle);
+					favorite.setDate(post.record.createdAt);
+					favorite.setBody(post.record.text);
+					favorite.setId(UriComponent.decodePath(post.uri, true).get(1).getPath()); // https://atproto.com/specs/record-key
+					favorite.setUrl(POST_PAGE_URI.build(post.author.did, favorite.getId()));
+				}
+
+				cursor = favoritesResponseBody.cursor;
+				return favorites;
 			}
-
-			cursor = favoritesResponseBody.cursor;
-		} while (!posts.isEmpty());
-
-		return favorites;
+		};
 	}
 
 	@Override
@@ -116,6 +131,13 @@ public class BlueskyDownloader extends FavoritesDownloader<FavoritePost> {
 		page.addStyleTag(new AddStyleTagOptions().setContent(POST_STYLESHEET));
 	}
 
+	@Override
+	protected void addRequestBlockingRules(final RequestBlockingRules rules) {
+		super.addRequestBlockingRules(rules);
+		// Statsig event logging, but not its feature gates, which decide how the post is laid out
+		rules.blockUrls("analytics events", Pattern.compile("/v1/rgstr\\b"));
+	}
+
 	@Override
 	protected String getScreenshotSelector(final FavoritePost favorite) {
 		return "div[data-testid ^= 'postThreadItem-by-']:has(*[aria-label='Likes on this post'])";
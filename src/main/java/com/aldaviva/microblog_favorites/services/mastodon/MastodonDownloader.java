@@ -3,6 +3,7 @@ package com.aldaviva.microblog_favorites.services.mastodon;
 import com.aldaviva.microblog_favorites.ConfigurationFactory;
 import com.aldaviva.microblog_favorites.FavoritePost;
 import com.aldaviva.microblog_favorites.FavoritesDownloader;
+import com.aldaviva.microblog_favorites.FavoritesPageIterator;
 import com.aldaviva.microblog_favorites.services.mastodon.MastodonSchema.FavoritesListResponse;
 import com.aldaviva.microblog_favorites.services.mastodon.MastodonSchema.Status;
 
@@ -12,6 +13,7 @@ import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.core.UriBuilder;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 public class MastodonDownloader extends FavoritesDownloader<FavoritePost> {
@@ -42,29 +44,38 @@ public class MastodonDownloader extends FavoritesDownloader<FavoritePost> {
 	}
 
 	@Override
-	protected List<FavoritePost> listAllFavorites() {
-		final List<FavoritePost> favorites = new ArrayList<>();
-
-		URI nextPage = null;
-		do {
-			final FavoritesListResponse page = mastodon.listFavorites(40, nextPage);
-
-			for (final Status status : page.statuses) {
-				final FavoritePost favorite = new FavoritePost();
-				favorites.add(favorite);
-
-				favorite.setAuthorHandle(status.account.acct);
-				favorite.setAuthorName(status.account.displayName);
-				favorite.setBody(status.content);
-				favorite.setDate(status.createdAt);
-				favorite.setId(status.id);
-				favorite.setUrl(POST_PAGE_URI.build(status.account.acct, status.id));
+	protected Iterator<List<FavoritePost>> listFavoritePages() {
+		return new FavoritesPageIterator<>() {
+
+			private URI nextPage = null;
+			private boolean isLastPageFetched = false;
+
+			@Override
+			protected List<FavoritePost> fetchNextPage() {
+				if (isLastPageFetched) {
+					return null;
+				}
+
+				final FavoritesListResponse page = mastodon.listFavorites(40, nextPage);
+
+				final List<FavoritePost> favorites = new ArrayList<>(page.statuses.size());
+				for (final Status status : page.statuses) {
+					final FavoritePost favorite = new FavoritePost();
+					favorites.add(favorite);
+
+					favorite.setAuthorHandle(status.account.acct);
+					favorite.setAuthorName(status.account.displayName);
+					favorite.setBody(status.content);
+					favorite.setDate(status.createdAt);
+					favorite.setId(status.id);
+					favorite.setUrl(POST_PAGE_URI.build(status.account.acct, status.id));
+				}
+
+				nextPage = page.nextPage;
+				isLastPageFetched = nextPage == null;
+				return favorites;
 			}
-
-			nextPage = page.nextPage;
-		} while (nextPage != null);
-
-		return favorites;
+		};
 	}
 
 	@Override
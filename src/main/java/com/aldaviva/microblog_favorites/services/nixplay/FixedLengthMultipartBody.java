@@ -0,0 +1,87 @@
+package com.aldaviva.microblog_favorites.services.nixplay;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * <p>A {@code multipart/form-data} request body with text fields followed by one file, whose length is known before it is written.</p>
+ *
+ * <p>Jersey's {@code FormDataMultiPart} can't report its length, so the default connector buffers the entire body in memory to measure it before sending
+ * it. Since this body knows its length, it can be sent with a {@code Content-Length} header in fixed-length streaming mode, and the file is copied
+ * straight from its source to the socket. S3 POST uploads don't accept chunked request bodies, so a known length is required to stream.</p>
+ */
+class FixedLengthMultipartBody implements StreamingOutput {
+
+	private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final String boundary = "----" + UUID.randomUUID().toString().replace("-", "");
+	private final ByteArrayOutputStream fieldParts = new ByteArrayOutputStream();
+	private byte[] fileHeader;
+	private long fileLength;
+	private StreamingOutput fileContent;
+
+	public FixedLengthMultipartBody field(final String name, final String value) {
+		writePartHeader(fieldParts, name, null, null);
+		fieldParts.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+		fieldParts.writeBytes(CRLF);
+		return this;
+	}
+
+	/**
+	 * Set the file part, which is always written after all of the fields.
+	 * @param fileLength exact number of bytes that {@code fileContent} writes
+	 * @param fileContent writes the file to the request, which may happen more than once if the request is retried
+	 */
+	public FixedLengthMultipartBody file(final String name, final String filename, final MediaType contentType, final long fileLength,
+	    final StreamingOutput fileContent) {
+		final ByteArrayOutputStream header = new ByteArrayOutputStream();
+		writePartHeader(header, name, filename, contentType);
+		this.fileHeader = header.toByteArray();
+		this.fileLength = fileLength;
+		this.fileContent = fileContent;
+		return this;
+	}
+
+	public MediaType getMediaType() {
+		return new MediaType("multipart", "form-data", Collections.singletonMap("boundary", boundary));
+	}
+
+	public long getLength() {
+		return fieldParts.size() + fileHeader.length + fileLength + CRLF.length + getTrailer().length;
+	}
+
+	@Override
+	public void write(final OutputStream output) throws IOException {
+		fieldParts.writeTo(output);
+		output.write(fileHeader);
+		fileContent.write(output);
+		output.write(CRLF);
+		output.write(getTrailer());
+	}
+
+	private void writePartHeader(final ByteArrayOutputStream destination, final String name, final String filename, final MediaType contentType) {
+		final StringBuilder header = new StringBuilder()
+		    .append("--").append(boundary).append("\r\n")
+		    .append("Content-Disposition: form-data; name=\"").append(name).append('"');
+		if (filename != null) {
+			header.append("; filename=\"").append(filename).append('"');
+		}
+		header.append("\r\n");
+		if (contentType != null) {
+			header.append("Content-Type: ").append(contentType).append("\r\n");
+		}
+		header.append("\r\n");
+		destination.writeBytes(header.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private byte[] getTrailer() {
+		return ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
@@ -20,69 +20,98 @@ import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.Cookie;
 import jakarta.ws.rs.core.Form;
 import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.NewCookie;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.PasswordAuthentication;
 import java.net.URI;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import org.glassfish.jersey.client.ClientRequest;
-import org.glassfish.jersey.media.multipart.BodyPart;
-import org.glassfish.jersey.media.multipart.FormDataBodyPart;
-import org.glassfish.jersey.media.multipart.FormDataMultiPart;
-import org.glassfish.jersey.media.multipart.MultiPartFeature;
-import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
-import org.glassfish.jersey.media.multipart.file.StreamDataBodyPart;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
 
 public class JerseyNixplayClient implements NixplayClient {
 
 	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(JerseyNixplayClient.class);
 
-	private static final URI API_BASE_URI = URI.create("https://api.nixplay.com/");
-	private static final URI UPLOAD_MONITOR_BASE_URI = URI.create("https://upload-monitor.nixplay.com/");
+	private static final URI DEFAULT_API_BASE_URI = URI.create("https://api.nixplay.com/");
+	private static final URI DEFAULT_UPLOAD_MONITOR_BASE_URI = URI.create("https://upload-monitor.nixplay.com/");
 	private static final URI EMPTY_URI = URI.create("");
 	private static final String SESSION_ID_COOKIE_NAME = "prod.session.id";
 	private static final String TOKEN_ID_COOKIE_NAME = "prod.token.id";
 	private static final String CSRF_TOKEN_COOKIE_NAME = "prod.csrftoken";
 	private static final String CSRF_TOKEN_HEADER_NAME = "X-CSRFToken";
 	private static final MediaType PHOTO_CONTENT_TYPE = MediaType.valueOf("image/jpeg");
+	private static final int CONCURRENT_UPLOADS = Integer.getInteger("nixplayConcurrentUploads", 8); // photos being sent to or processed by Nixplay at once, across all threads
 
 	private final Client client;
+	private final Client uploadClient;
+	private final URI apiBaseUri;
+	private final URI uploadMonitorBaseUri;
 
-	private String sessionId;
-	private String csrfToken;
-	private String tokenId;
+	private volatile Session session = Session.SIGNED_OUT;
+	private final ExecutorService uploadExecutor = Executors.newVirtualThreadPerTaskExecutor(); // uploads spend most of their time waiting for Nixplay
+	private final Semaphore uploadPermits = new Semaphore(CONCURRENT_UPLOADS);
 
-	private final Map<Long, String> albumToUploadTokenCache = new HashMap<>();
+	private final NixplayAlbumIndex albumIndex = new NixplayAlbumIndex(this);
 	private final boolean closeClient;
 
 	public JerseyNixplayClient(final Client client, final boolean closeClient) {
+		this(client, client, closeClient);
+	}
+
+	/**
+	 * @param uploadClient sends photo bodies to S3, so it must support {@link HttpUrlConnectorProvider#USE_FIXED_LENGTH_STREAMING}
+	 */
+	public JerseyNixplayClient(final Client client, final Client uploadClient, final boolean closeClient) {
+		this(client, uploadClient, closeClient, DEFAULT_API_BASE_URI, DEFAULT_UPLOAD_MONITOR_BASE_URI);
+	}
+
+	/**
+	 * @param apiBaseUri where to send API requests instead of Nixplay, such as a local stand-in server in tests. S3 upload URLs come from the API.
+	 */
+	JerseyNixplayClient(final Client client, final Client uploadClient, final boolean closeClient, final URI apiBaseUri, final URI uploadMonitorBaseUri) {
 		this.client = client
-		    .register(new SessionIdFilter())
-		    .register(MultiPartFeature.class);
+		    .register(new SessionIdFilter());
+		this.uploadClient = uploadClient;
 		this.closeClient = closeClient;
+		this.apiBaseUri = apiBaseUri;
+		this.uploadMonitorBaseUri = uploadMonitorBaseUri;
 	}
 
 	private void resetSessionState() {
-		synchronized (albumToUploadTokenCache) {
-			sessionId = null;
-			csrfToken = null;
-			albumToUploadTokenCache.clear();
-		}
+		session = Session.SIGNED_OUT;
 	}
 
 	protected WebTarget target() {
-		return client.target(API_BASE_URI);
+		return client.target(apiBaseUri);
 	}
 
 	@Priority(Priorities.AUTHENTICATION)
@@ -94,18 +123,19 @@ public class JerseyNixplayClient implements NixplayClient {
 		public void filter(final ClientRequestContext requestContext) throws IOException {
 			final ClientRequest request = (ClientRequest) requestContext;
 			final MultivaluedMap<String, Object> requestHeaders = request.getHeaders();
-			if (isSubUri(API_BASE_URI, requestContext.getUri())) {
-				if (sessionId != null) {
-					request.cookie(new Cookie.Builder(SESSION_ID_COOKIE_NAME).value(sessionId).build());
+			if (isSubUri(apiBaseUri, requestContext.getUri())) {
+				final Session session = JerseyNixplayClient.this.session; // read once, so all of the cookies come from the same session
+				if (session.sessionId != null) {
+					request.cookie(new Cookie.Builder(SESSION_ID_COOKIE_NAME).value(session.sessionId).build());
 				}
 
-				if (tokenId != null) {
-					request.cookie(new Cookie.Builder(TOKEN_ID_COOKIE_NAME).value(tokenId).build());
+				if (session.tokenId != null) {
+					request.cookie(new Cookie.Builder(TOKEN_ID_COOKIE_NAME).value(session.tokenId).build());
 				}
 
-				if (csrfToken != null && verbsWithSideEffects.contains(requestContext.getMethod())) {
-					request.cookie(new Cookie.Builder(CSRF_TOKEN_COOKIE_NAME).value(csrfToken).build());
-					requestHeaders.putSingle(CSRF_TOKEN_HEADER_NAME, csrfToken);
+				if (session.csrfToken != null && verbsWithSideEffects.contains(requestContext.getMethod())) {
+					request.cookie(new Cookie.Builder(CSRF_TOKEN_COOKIE_NAME).value(session.csrfToken).build());
+					requestHeaders.putSingle(CSRF_TOKEN_HEADER_NAME, session.csrfToken);
 				}
 
 				// Avoid 403 on POST requests
@@ -118,8 +148,7 @@ public class JerseyNixplayClient implements NixplayClient {
 
 	@Override
 	public String signIn(final String sessionId) {
-		resetSessionState();
-		this.sessionId = sessionId;
+		session = new Session(sessionId, null, null);
 		return sessionId;
 	}
 
@@ -155,10 +184,8 @@ public class JerseyNixplayClient implements NixplayClient {
 		    .post(Entity.form(tokenForm))) {
 
 			final Map<String, NewCookie> responseCookies = authenticationResponse.getCookies();
-			csrfToken = responseCookies.get(CSRF_TOKEN_COOKIE_NAME).getValue();
 			final String sessionId = responseCookies.get(SESSION_ID_COOKIE_NAME).getValue();
-			this.sessionId = sessionId;
-			tokenId = responseCookies.get(TOKEN_ID_COOKIE_NAME).getValue();
+			session = new Session(sessionId, responseCookies.get(CSRF_TOKEN_COOKIE_NAME).getValue(), responseCookies.get(TOKEN_ID_COOKIE_NAME).getValue());
 			LOGGER.debug("Exchanged auth token for session ID {}", sessionId);
 			return sessionId;
 		}
@@ -166,7 +193,7 @@ public class JerseyNixplayClient implements NixplayClient {
 
 	@Override
 	public void signOut() {
-		if (sessionId != null) {
+		if (session.sessionId != null) {
 			try (Response response = target()
 			    .path("sign_out/")
 			    .request()
@@ -210,14 +237,16 @@ public class JerseyNixplayClient implements NixplayClient {
 	@Override
 	public Playlist createPlaylist(final String name) {
 		LOGGER.debug("Creating playlist {}", name);
-		final long id = target()
+		final Playlist playlist = new Playlist();
+		playlist.name = name;
+		playlist.id = target()
 		    .path("v3/playlists")
 		    .request()
 		    .post(Entity.json(Collections.singletonMap("name", name)), ObjectNode.class)
 		    .path("playlistId")
 		    .asLong();
 
-		return listPlaylists().stream().filter(playlist -> playlist.id == id).findAny().get();
+		return playlist; // only the ID and name, to avoid listing every playlist just to find the new one
 	}
 
 	@Override
@@ -258,50 +287,210 @@ public class JerseyNixplayClient implements NixplayClient {
 		    .post(Entity.json(requestBody), JsonNode.class);
 	}
 
-	@Override
-	public Photo uploadPhoto(final byte[] photoBytes, final String filename, final Album destinationAlbum) {
-		final BodyPart photoBodyPart = new FormDataBodyPart("file", photoBytes, PHOTO_CONTENT_TYPE);
-		photoBodyPart.getHeaders().add("filename", filename);
-		return uploadPhoto(photoBodyPart, photoBytes.length, destinationAlbum);
-	}
-
 	@Override
 	public Photo uploadPhoto(final InputStream photoStream, final String filename, final long length, final Album destinationAlbum) {
-		final BodyPart photoBodyPart = new StreamDataBodyPart("file", photoStream, filename, PHOTO_CONTENT_TYPE);
-		return uploadPhoto(photoBodyPart, length, destinationAlbum);
+		return uploadPhoto(photoStream::transferTo, filename, length, destinationAlbum);
 	}
 
+	/**
+	 * The file is streamed from disk to S3 without being read into memory.
+	 */
 	@Override
 	public Photo uploadPhoto(final File photoFile, final Album destinationAlbum) {
-		final BodyPart photoBodyPart = new FileDataBodyPart("file", photoFile, PHOTO_CONTENT_TYPE);
-		return uploadPhoto(photoBodyPart, photoFile.length(), destinationAlbum);
+		return uploadPhoto(output -> Files.copy(photoFile.toPath(), output), photoFile.getName(), photoFile.length(), destinationAlbum);
 	}
 
-	protected Photo uploadPhoto(final BodyPart photoBodyPart, final long photoBytes, final Album destinationAlbum) {
-		final String filename = photoBodyPart.getHeaders().getFirst("filename");
+	/**
+	 * @param photoContent writes exactly {@code photoBytes} bytes of the photo
+	 */
+	protected Photo uploadPhoto(final StreamingOutput photoContent, final String filename, final long photoBytes, final Album destinationAlbum) {
 		String uploadToken;
 		LOGGER.debug("Uploading photo {} ({} bytes) to album {}", filename, photoBytes, destinationAlbum.title);
 
-		synchronized (albumToUploadTokenCache) {
-			uploadToken = albumToUploadTokenCache.get(destinationAlbum.id);
-			if (uploadToken == null) {
-				LOGGER.debug("Cache miss on upload token for album {}, creating new upload token", destinationAlbum.title);
-				final Form uploadTokenForm = new Form();
-				uploadTokenForm.param("albumId", String.valueOf(destinationAlbum.id));
-				uploadTokenForm.param("total", "1"); //nominally the number of photos to upload, but not enforced
-
-				final ObjectNode uploadTokenResponse = target().path("v3/upload/receivers")
-				    .request()
-				    .post(Entity.form(uploadTokenForm), ObjectNode.class);
-
-				uploadToken = uploadTokenResponse.path("token").asText();
-				albumToUploadTokenCache.put(destinationAlbum.id, uploadToken);
-				LOGGER.debug("Created upload token {} for album {}", uploadToken, destinationAlbum.title);
-			} else {
-				LOGGER.debug("Cache hit on upload token {} for album {}", uploadToken, destinationAlbum.title);
+		final Session session = this.session;
+		uploadToken = session.uploadTokensByAlbum.get(destinationAlbum.id);
+		if (uploadToken == null) {
+			// only uploads to the same album wait for each other to create its token
+			// a lock instead of synchronized, which would pin the carrier thread of a virtual thread while it waits for Nixplay
+			final ReentrantLock albumLock = session.uploadTokenLocksByAlbum.computeIfAbsent(destinationAlbum.id, albumId -> new ReentrantLock());
+			albumLock.lock();
+			try {
+				uploadToken = session.uploadTokensByAlbum.get(destinationAlbum.id);
+				if (uploadToken == null) {
+					LOGGER.debug("Cache miss on upload token for album {}, creating new upload token", destinationAlbum.title);
+					uploadToken = createUploadToken(destinationAlbum, 1);
+					session.uploadTokensByAlbum.put(destinationAlbum.id, uploadToken);
+				}
+			} finally {
+				albumLock.unlock();
 			}
+		} else {
+			LOGGER.debug("Cache hit on upload token {} for album {}", uploadToken, destinationAlbum.title);
 		}
 
+		final String md5 = transferPhoto(uploadToken, photoContent, filename, photoBytes, destinationAlbum, () -> false);
+
+		/*
+		 * When you upload a photo to an album, Nixplay doesn't tell you which photo you just uploaded (none of the IDs or S3 URLs match between the upload
+		 * response and the album contents).
+		 * However, photos are prepended to albums, and listed with their MD5 hashes.
+		 * Therefore, to work around this limitation, the photo is hashed while it's uploaded, and then found by its hash among the photos added to the album
+		 * since it was last indexed. Unlike matching filenames, this is safe when many photos are uploaded at once, or when filenames collide.
+		 */
+		LOGGER.debug("Finding uploaded photo in album {}", destinationAlbum.title);
+		albumIndex.sync(destinationAlbum, 1);
+		return albumIndex.find(destinationAlbum, md5, filename);
+	}
+
+	@Override
+	public CompletableFuture<Photo> uploadPhotoAsync(final File photoFile, final Album destinationAlbum) {
+		return CompletableFuture.supplyAsync(() -> uploadPhoto(photoFile, destinationAlbum), uploadExecutor);
+	}
+
+	@Override
+	public List<Photo> uploadPhotos(final List<File> photoFiles, final Album destinationAlbum) {
+		return await(uploadPhotosAsync(photoFiles, destinationAlbum));
+	}
+
+	/**
+	 * <p>Each photo is sent to S3 and waited on in its own virtual thread, using one upload token for the whole batch. Once Nixplay has processed all of
+	 * them, they are found by their MD5 hashes with one listing of the album's most recent photos.</p>
+	 *
+	 * <p>If a photo fails, the photos that are still waiting for their turn are skipped, and the ones already being sent are waited for, so nothing from
+	 * the batch is still uploading once the returned future fails. Since the photos that were sent are in the album by then, it fails with a
+	 * {@link PartialUploadException} that says which ones they were. It only fails with another exception if no photo was sent.</p>
+	 */
+	@Override
+	public CompletableFuture<List<Photo>> uploadPhotosAsync(final List<File> photoFiles, final Album destinationAlbum) {
+		LOGGER.debug("Uploading {} photos to album {}", photoFiles.size(), destinationAlbum.title);
+		return CompletableFuture.supplyAsync(() -> createUploadToken(destinationAlbum, photoFiles.size()), uploadExecutor)
+		    .thenCompose(uploadToken -> {
+			    final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+			    final List<CompletableFuture<String>> md5s = new ArrayList<>(photoFiles.size());
+			    for (final File photoFile : photoFiles) {
+				    md5s.add(CompletableFuture.supplyAsync(() -> transferPhoto(uploadToken, output -> Files.copy(photoFile.toPath(), output), photoFile.getName(),
+				        photoFile.length(), destinationAlbum, () -> firstFailure.get() != null), uploadExecutor)
+				        .whenComplete((md5, failure) -> {
+					        if (failure != null) {
+						        firstFailure.compareAndSet(null, failure instanceof CompletionException ? failure.getCause() : failure);
+					        }
+				        }));
+			    }
+			    // allOf only completes once every transfer has, even if one failed early
+			    return CompletableFuture.allOf(md5s.toArray(CompletableFuture[]::new))
+			        .handleAsync((allTransferred, anyFailure) -> findUploadedPhotos(photoFiles, md5s, firstFailure.get(), destinationAlbum), uploadExecutor);
+		    });
+	}
+
+	/**
+	 * @param md5s the result of sending each photo
+	 * @param transferFailure why the first photo that failed wasn't sent, or {@code null} if they all were
+	 * @throws PartialUploadException if any photo failed, or if the sent photos couldn't be looked up
+	 */
+	private List<Photo> findUploadedPhotos(final List<File> photoFiles, final List<CompletableFuture<String>> md5s, final Throwable transferFailure,
+	    final Album destinationAlbum) {
+		final List<File> failedPhotoFiles = new ArrayList<>();
+		for (int i = 0; i < photoFiles.size(); i++) {
+			if (md5s.get(i).isCompletedExceptionally()) {
+				failedPhotoFiles.add(photoFiles.get(i));
+			}
+		}
+		final int sentPhotoCount = photoFiles.size() - failedPhotoFiles.size();
+		final List<Photo> uploadedPhotos = new ArrayList<>(Collections.nCopies(photoFiles.size(), null));
+
+		if (sentPhotoCount > 0) {
+			try {
+				// see uploadPhoto(StreamingOutput, String, long, Album) for why the photos have to be found by hash
+				LOGGER.debug("Finding {} uploaded photos in album {}", sentPhotoCount, destinationAlbum.title);
+				albumIndex.sync(destinationAlbum, sentPhotoCount);
+				for (int i = 0; i < photoFiles.size(); i++) {
+					if (!md5s.get(i).isCompletedExceptionally()) {
+						uploadedPhotos.set(i, albumIndex.find(destinationAlbum, md5s.get(i).join(), photoFiles.get(i).getName()));
+					}
+				}
+			} catch (final RuntimeException e) {
+				// the photos are in the album, so they must not be uploaded again, even though they can't be added to a playlist
+				if (transferFailure == null) {
+					throw new PartialUploadException("Uploaded " + sentPhotoCount + " photos to album " + destinationAlbum.title + ", but failed to find them", e,
+					    uploadedPhotos, failedPhotoFiles);
+				}
+				transferFailure.addSuppressed(e);
+			}
+		}
+
+		if (transferFailure != null) {
+			if (sentPhotoCount == 0 && transferFailure instanceof RuntimeException) {
+				throw (RuntimeException) transferFailure; // nothing to report, so the whole batch can simply be retried
+			}
+			LOGGER.debug("Uploaded {} of {} photos to album {} before one failed, skipped the rest", sentPhotoCount, photoFiles.size(), destinationAlbum.title);
+			throw new PartialUploadException("Failed to upload " + failedPhotoFiles.size() + " of " + photoFiles.size() + " photos to album "
+			    + destinationAlbum.title, transferFailure, uploadedPhotos, failedPhotoFiles);
+		}
+		return uploadedPhotos;
+	}
+
+	@Override
+	public CompletableFuture<Void> appendPhotosToPlaylistAsync(final Playlist playlist, final Photo... photos) {
+		return CompletableFuture.runAsync(() -> appendPhotosToPlaylist(playlist, photos), uploadExecutor);
+	}
+
+	/**
+	 * Wait for an asynchronous request to finish.
+	 * @throws RuntimeException the exception that the request failed with, such as a {@link jakarta.ws.rs.WebApplicationException}
+	 */
+	static <T> T await(final CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (final CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private String createUploadToken(final Album destinationAlbum, final int photoCount) {
+		final Form uploadTokenForm = new Form();
+		uploadTokenForm.param("albumId", String.valueOf(destinationAlbum.id));
+		uploadTokenForm.param("total", String.valueOf(photoCount)); //nominally the number of photos to upload, but not enforced
+
+		final ObjectNode uploadTokenResponse = target().path("v3/upload/receivers")
+		    .request()
+		    .post(Entity.form(uploadTokenForm), ObjectNode.class);
+
+		final String uploadToken = uploadTokenResponse.path("token").asText();
+		LOGGER.debug("Created upload token {} for {} photos in album {}", uploadToken, photoCount, destinationAlbum.title);
+		return uploadToken;
+	}
+
+	/**
+	 * Send one photo to S3, and wait for Nixplay to process it. Safe to call from multiple threads at once, but only {@code -DnixplayConcurrentUploads}
+	 * run at a time, and the rest wait their turn.
+	 * @param isCancelled checked once it's this photo's turn, so that the rest of a failed batch isn't sent
+	 * @return lowercase hexadecimal MD5 hash of the photo, computed while sending it
+	 * @throws CancellationException if the photo was not sent because {@code isCancelled} returned {@code true}
+	 */
+	private String transferPhoto(final String uploadToken, final StreamingOutput photoContent, final String filename, final long photoBytes,
+	    final Album destinationAlbum, final BooleanSupplier isCancelled) {
+		try {
+			uploadPermits.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+
+		try {
+			if (isCancelled.getAsBoolean()) {
+				throw new CancellationException("Skipped uploading " + filename + " because another photo in its batch failed");
+			}
+			return sendPhoto(uploadToken, photoContent, filename, photoBytes, destinationAlbum);
+		} finally {
+			uploadPermits.release();
+		}
+	}
+
+	private String sendPhoto(final String uploadToken, final StreamingOutput photoContent, final String filename, final long photoBytes,
+	    final Album destinationAlbum) {
 		final Form uploadIdForm = new Form();
 		uploadIdForm.param("uploadToken", uploadToken);
 		uploadIdForm.param("albumId", String.valueOf(destinationAlbum.id));
@@ -321,43 +510,35 @@ public class JerseyNixplayClient implements NixplayClient {
 		LOGGER.debug("Received upload ID (batch upload ID={}, key={})", uploadIdResponse.path("batchUploadId").asText(), uploadIdResponse.path("key").asText());
 
 		LOGGER.debug("Uploading {} bytes to {}", photoBytes, uploadIdResponse.path("s3UploadUrl").asText());
-		try (FormDataMultiPart requestBody = new FormDataMultiPart()) {
-			requestBody.field("key", uploadIdResponse.path("key").asText())
-			    .field("acl", uploadIdResponse.path("acl").asText())
-			    .field("content-type", uploadIdResponse.path("fileType").asText())
-			    .field("x-amz-meta-batch-upload-id", uploadIdResponse.path("batchUploadId").asText())
-			    .field("success_action_status", "201")
-			    .field("AWSAccessKeyId", uploadIdResponse.path("AWSAccessKeyId").asText())
-			    .field("Policy", uploadIdResponse.path("Policy").asText())
-			    .field("Signature", uploadIdResponse.path("Signature").asText())
-			    .bodyPart(photoBodyPart);
-
-			try (Response response = client.target(uploadIdResponse.path("s3UploadUrl").asText())
-			    .request()
-			    .post(Entity.entity(requestBody, requestBody.getMediaType()))) {
-			}
-
-			LOGGER.debug("Uploaded {}", filename);
-		} catch (final IOException e) {
-			//close
+		final HashingStreamingOutput hashingPhotoContent = new HashingStreamingOutput(photoContent);
+		final FixedLengthMultipartBody requestBody = new FixedLengthMultipartBody()
+		    .field("key", uploadIdResponse.path("key").asText())
+		    .field("acl", uploadIdResponse.path("acl").asText())
+		    .field("content-type", uploadIdResponse.path("fileType").asText())
+		    .field("x-amz-meta-batch-upload-id", uploadIdResponse.path("batchUploadId").asText())
+		    .field("success_action_status", "201")
+		    .field("AWSAccessKeyId", uploadIdResponse.path("AWSAccessKeyId").asText())
+		    .field("Policy", uploadIdResponse.path("Policy").asText())
+		    .field("Signature", uploadIdResponse.path("Signature").asText())
+		    .file("file", filename, PHOTO_CONTENT_TYPE, photoBytes, hashingPhotoContent);
+
+		try (Response response = uploadClient.target(uploadIdResponse.path("s3UploadUrl").asText())
+		    .request()
+		    .header(HttpHeaders.CONTENT_LENGTH, requestBody.getLength()) // the length for fixed-length streaming mode, a restricted header, see HttpClientFactory
+		    .property(HttpUrlConnectorProvider.USE_FIXED_LENGTH_STREAMING, true) // stream the body instead of buffering it to find its length
+		    .post(Entity.entity(requestBody, requestBody.getMediaType()))) {
 		}
 
+		LOGGER.debug("Uploaded {}", filename);
+
 		LOGGER.debug("Waiting for {} to be processed by Nixplay", filename);
-		client.target(UPLOAD_MONITOR_BASE_URI)
+		client.target(uploadMonitorBaseUri)
 		    .path("status")
 		    .queryParam("id", uploadMonitorId)
 		    .request()
 		    .get(String.class);
 
-		/*
-		 * When you upload a photo to an album, Nixplay doesn't tell you which photo you just uploaded (none of the IDs or S3 URLs match between the upload
-		 * response and the album contents).
-		 * However, photos are prepended to albums.
-		 * Therefore, to work around this limitation, this function fetches the 15 most recently added photos in the album and matches one by filename.
-		 * This is subject to race conditions where a lot of files are uploaded in parallel, or deleted too soon, or filenames collide.
-		 */
-		LOGGER.debug("Finding uploaded photo in most recent photos of album {}", destinationAlbum.title);
-		return getPhotosFromAlbum(destinationAlbum, 1, 15).stream().filter(photo -> filename.equals(photo.filename)).findFirst().orElse(null);
+		return hashingPhotoContent.getMd5();
 	}
 
 	@Override
@@ -375,8 +556,12 @@ public class JerseyNixplayClient implements NixplayClient {
 	@Override
 	public void close() {
 		resetSessionState();
+		uploadExecutor.shutdown();
 		if (closeClient) {
 			client.close();
+			if (uploadClient != client) {
+				uploadClient.close();
+			}
 		}
 	}
 
@@ -385,4 +570,55 @@ public class JerseyNixplayClient implements NixplayClient {
 		return !relativeUri.isAbsolute() && !relativeUri.equals(EMPTY_URI);
 	}
 
+	/**
+	 * Everything that depends on being signed in. A new instance replaces the old one on every sign-in and sign-out, so that requests running at the same
+	 * time always see a consistent session, and never use an upload token from a previous session.
+	 */
+	private static final class Session {
+
+		static final Session SIGNED_OUT = new Session(null, null, null);
+
+		final String sessionId;
+		final String csrfToken;
+		final String tokenId;
+		final Map<Long, String> uploadTokensByAlbum = new ConcurrentHashMap<>();
+		final Map<Long, ReentrantLock> uploadTokenLocksByAlbum = new ConcurrentHashMap<>();
+
+		Session(final String sessionId, final String csrfToken, final String tokenId) {
+			this.sessionId = sessionId;
+			this.csrfToken = csrfToken;
+			this.tokenId = tokenId;
+		}
+	}
+
+	/**
+	 * Computes the MD5 hash of the photo as it's written to the request, so the file doesn't have to be read twice. The hash is computed again if the
+	 * request is retried.
+	 */
+	private static final class HashingStreamingOutput implements StreamingOutput {
+
+		private final StreamingOutput content;
+		private volatile String md5;
+
+		HashingStreamingOutput(final StreamingOutput content) {
+			this.content = content;
+		}
+
+		@Override
+		public void write(final OutputStream output) throws IOException {
+			final MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("MD5");
+			} catch (final NoSuchAlgorithmException e) {
+				throw new RuntimeException(e); // every JRE is required to support MD5
+			}
+			content.write(new DigestOutputStream(output, digest)); // not closed, since the rest of the request is written after it
+			md5 = HexFormat.of().formatHex(digest.digest());
+		}
+
+		public String getMd5() {
+			return md5;
+		}
+	}
+
 }
@@ -0,0 +1,113 @@
+package com.aldaviva.microblog_favorites.services.nixplay;
+
+import com.aldaviva.microblog_favorites.services.nixplay.data.Album;
+import com.aldaviva.microblog_favorites.services.nixplay.data.Photo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>The photos in each Nixplay album that this client has seen, by MD5 hash and by filename. Nixplay doesn't say which photo an upload created, but it
+ * does list each photo's MD5 hash, so the client hashes each photo while uploading it and looks it up here afterwards.</p>
+ *
+ * <p>Since Nixplay lists the most recently added photos first, each {@link #sync(Album, int)} only lists photos until it reaches one it has already seen,
+ * which is usually just the photos uploaded since the last sync.</p>
+ */
+class NixplayAlbumIndex {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(NixplayAlbumIndex.class);
+
+	private static final int EXTRA_PHOTOS_PER_PAGE = 15; // room for photos added by other uploads at the same time
+	private static final int MAX_PAGES_PER_SYNC = 3;
+
+	private final NixplayClient nixplayClient;
+	private final Map<Long, AlbumContents> albumContents = new ConcurrentHashMap<>();
+
+	NixplayAlbumIndex(final NixplayClient nixplayClient) {
+		this.nixplayClient = nixplayClient;
+	}
+
+	/**
+	 * List the photos that were added to an album since the last sync.
+	 * @param newPhotos number of photos known to have been added since the last sync, which sets the page size
+	 */
+	public void sync(final Album album, final int newPhotos) {
+		final AlbumContents contents = albumContents.computeIfAbsent(album.id, id -> new AlbumContents());
+		contents.lock.lock(); // not synchronized, which would pin the carrier thread of a virtual thread while it waits for Nixplay
+		try {
+			final int pageSize = newPhotos + EXTRA_PHOTOS_PER_PAGE;
+			final List<Photo> listedPhotos = new ArrayList<>(pageSize);
+			final int maxPages = contents.photoIds.isEmpty() ? 1 : MAX_PAGES_PER_SYNC; // the first sync has no known photo to stop at, so only list the newest ones
+			boolean reachedKnownPhoto = false;
+			for (int page = 1; page <= maxPages && !reachedKnownPhoto; page++) {
+				final List<Photo> pagePhotos = nixplayClient.getPhotosFromAlbum(album, page, pageSize);
+				for (final Photo photo : pagePhotos) {
+					if (contents.photoIds.contains(photo.id)) {
+						reachedKnownPhoto = true;
+						break;
+					}
+					listedPhotos.add(photo);
+				}
+				if (pagePhotos.size() < pageSize) {
+					break;
+				}
+			}
+
+			// oldest first, so that the newest photo wins if several have the same hash or filename
+			for (int i = listedPhotos.size() - 1; i >= 0; i--) {
+				final Photo photo = listedPhotos.get(i);
+				contents.photoIds.add(photo.id);
+				if (photo.md5 != null) {
+					contents.photosByMd5.put(photo.md5, photo);
+				}
+				contents.photosByFilename.put(photo.filename, photo);
+			}
+			LOGGER.debug("Indexed {} new photos in album {}", listedPhotos.size(), album.title);
+		} finally {
+			contents.lock.unlock();
+		}
+	}
+
+	/**
+	 * @param md5 lowercase hexadecimal MD5 hash of the uploaded bytes
+	 * @param filename only used if Nixplay didn't list a hash for the photo
+	 * @return the newest photo in the album with the given hash, or {@code null} if it hasn't been synced
+	 */
+	public Photo find(final Album album, final String md5, final String filename) {
+		final AlbumContents contents = albumContents.get(album.id);
+		if (contents == null) {
+			return null;
+		}
+
+		contents.lock.lock();
+		try {
+			final Photo photo = contents.photosByMd5.get(md5);
+			if (photo != null) {
+				return photo;
+			}
+
+			final Photo photoWithFilename = contents.photosByFilename.get(filename);
+			if (photoWithFilename != null && photoWithFilename.md5 == null) {
+				LOGGER.debug("Nixplay did not list a hash for {}, matched it by filename", filename);
+				return photoWithFilename;
+			}
+			return null;
+		} finally {
+			contents.lock.unlock();
+		}
+	}
+
+	private static final class AlbumContents {
+		final ReentrantLock lock = new ReentrantLock();
+		final Set<Long> photoIds = new HashSet<>();
+		final Map<String, Photo> photosByMd5 = new HashMap<>();
+		final Map<String, Photo> photosByFilename = new HashMap<>();
+	}
+
+}
@@ -9,6 +9,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.net.PasswordAuthentication;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface NixplayClient extends AutoCloseable {
 
@@ -36,12 +37,28 @@ public interface NixplayClient extends AutoCloseable {
 
 	FrameStatus.Envelope listFrameStatuses();
 
-	Photo uploadPhoto(byte[] photoBytes, String filename, Album destinationAlbum);
-
 	Photo uploadPhoto(File photoFile, Album destinationAlbum);
 
 	Photo uploadPhoto(InputStream photoStream, String filename, long length, Album destinationAlbum);
 
+	/**
+	 * Upload several photos to the same album in one batch.
+	 * @return the uploaded photos, in the same order as {@code photoFiles}, with {@code null} for any photo that could not be found in the album after
+	 * uploading it
+	 * @throws PartialUploadException if some of the photos were uploaded, but not all of them
+	 */
+	List<Photo> uploadPhotos(List<File> photoFiles, Album destinationAlbum);
+
+	/**
+	 * Like {@link #uploadPhoto(File, Album)}, but runs in the background instead of blocking the calling thread.
+	 */
+	CompletableFuture<Photo> uploadPhotoAsync(File photoFile, Album destinationAlbum);
+
+	/**
+	 * Like {@link #uploadPhotos(List, Album)}, but runs in the background instead of blocking the calling thread.
+	 */
+	CompletableFuture<List<Photo>> uploadPhotosAsync(List<File> photoFiles, Album destinationAlbum);
+
 	/**
 	 * List photos in an album.
 	 * @param album The album in which to find photos.
@@ -52,4 +69,6 @@ public interface NixplayClient extends AutoCloseable {
 
 	void appendPhotosToPlaylist(Playlist playlist, Photo... photos);
 
+	CompletableFuture<Void> appendPhotosToPlaylistAsync(Playlist playlist, Photo... photos);
+
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+package com.aldaviva.microblog_favorites.services.nixplay;
+
+import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomObjectMapperProvider;
+import com.aldaviva.microblog_favorites.services.nixplay.data.Album;
+import com.aldaviva.microblog_favorites.services.nixplay.data.FrameStatus;
+import com.aldaviva.microblog_favorites.services.nixplay.data.Playlist;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * <p>Nixplay albums, playlists, and frames, saved to disk so that each run doesn't have to list all of them again after signing in.</p>
+ *
+ * <p>The saved copy is used for {@code -DnixplayMetadataCacheHours} (default 24) after it was listed. After that, or when it belongs to a different
+ * account, everything is listed again. Callers should also call {@link #revalidate()} when a request fails because of a cached album or playlist, since
+ * they can be changed or deleted on the Nixplay website at any time.</p>
+ *
+ * <p>Albums are indexed by their title's prefix and number (for example, {@code Twitter 12} has prefix {@code Twitter } and number 12).
+ * Playlists are indexed by name.</p>
+ */
+class NixplayMetadataCache {
+
+	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(NixplayMetadataCache.class);
+
+	private static final Duration TIME_TO_LIVE = Duration.ofHours(Long.getLong("nixplayMetadataCacheHours", 24));
+
+	private final NixplayClient nixplayClient;
+	private final Path cacheFile;
+
+	private Snapshot snapshot;
+	private boolean revalidated = false;
+	private final Map<String, NavigableMap<Integer, Album>> numberedAlbumsByPrefix = new HashMap<>();
+	private final Map<String, Playlist> playlistsByName = new HashMap<>();
+
+	NixplayMetadataCache(final NixplayClient nixplayClient, final Path cacheFile) {
+		this.nixplayClient = nixplayClient;
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Read the saved copy, or list everything from Nixplay if it's missing, expired, or for another account.
+	 * @param account username of the signed-in Nixplay user
+	 */
+	public synchronized void load(final String account) {
+		Snapshot saved = null;
+		if (Files.exists(cacheFile)) {
+			try {
+				saved = CustomObjectMapperProvider.OBJECT_MAPPER.readValue(cacheFile.toFile(), Snapshot.class);
+			} catch (final IOException e) {
+				LOGGER.warn("Ignoring unreadable Nixplay metadata cache {}: {}", cacheFile, e.getMessage());
+			}
+		}
+
+		if (saved != null && account.equals(saved.account) && saved.listed != null && saved.listed.plus(TIME_TO_LIVE).isAfter(Instant.now())) {
+			LOGGER.debug("Using Nixplay albums, playlists, and frames cached at {}", saved.listed);
+			snapshot = saved;
+			index();
+		} else {
+			snapshot = new Snapshot();
+			snapshot.account = account;
+			revalidate();
+		}
+	}
+
+	/**
+	 * List all albums, playlists, and frames from Nixplay again, replacing the cached ones.
+	 */
+	public synchronized void revalidate() {
+		LOGGER.debug("Listing Nixplay albums, playlists, and frames");
+		snapshot.albums = new ArrayList<>(nixplayClient.listAlbums());
+		snapshot.playlists = new ArrayList<>(nixplayClient.listPlaylists());
+		snapshot.frames = nixplayClient.listFrameStatuses().frames;
+		snapshot.listed = Instant.now();
+		revalidated = true;
+		index();
+		save();
+	}
+
+	/**
+	 * @return {@code true} if the cached metadata was listed from Nixplay during this run, so revalidating it again would not help
+	 */
+	public synchronized boolean isRevalidated() {
+		return revalidated;
+	}
+
+	/**
+	 * @return the album whose title is the given prefix followed by the highest number, or {@code null} if there isn't one
+	 */
+	public synchronized Album getNewestAlbum(final String titlePrefix) {
+		final NavigableMap<Integer, Album> numberedAlbums = numberedAlbumsByPrefix.get(titlePrefix);
+		return numberedAlbums != null ? numberedAlbums.lastEntry().getValue() : null;
+	}
+
+	/**
+	 * @return the highest number after the prefix in any album title, or 0 if there isn't one
+	 */
+	public synchronized int getNewestAlbumNumber(final String titlePrefix) {
+		final NavigableMap<Integer, Album> numberedAlbums = numberedAlbumsByPrefix.get(titlePrefix);
+		return numberedAlbums != null ? numberedAlbums.lastKey() : 0;
+	}
+
+	/**
+	 * @return every album whose title is the given prefix followed by a number, oldest first
+	 */
+	public synchronized List<Album> getAlbums(final String titlePrefix) {
+		final NavigableMap<Integer, Album> numberedAlbums = numberedAlbumsByPrefix.get(titlePrefix);
+		return numberedAlbums != null ? new ArrayList<>(numberedAlbums.values()) : new ArrayList<>();
+	}
+
+	public synchronized void addAlbum(final Album album) {
+		snapshot.albums.add(album);
+		indexAlbum(album);
+		save();
+	}
+
+	public synchronized Playlist getPlaylist(final String name) {
+		return playlistsByName.get(name);
+	}
+
+	public synchronized void addPlaylist(final Playlist playlist) {
+		snapshot.playlists.add(playlist);
+		playlistsByName.putIfAbsent(playlist.name, playlist);
+		save();
+	}
+
+	public synchronized List<FrameStatus> getFrames() {
+		return snapshot.frames;
+	}
+
+	/**
+	 * Write the cache to disk, including changes to the cached objects like {@link Album#photoCount}. Albums and playlists are saved as soon as they're
+	 * added, but callers must call this after changing a photo count, since a stale count left by a crash would be trusted for up to a day.
+	 */
+	public synchronized void save() {
+		final Path temporaryFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".partial");
+		try {
+			CustomObjectMapperProvider.OBJECT_MAPPER.writeValue(temporaryFile.toFile(), snapshot);
+			Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final IOException e) {
+			throw new RuntimeException("Failed to save Nixplay metadata cache to " + cacheFile, e);
+		}
+	}
+
+	private void index() {
+		numberedAlbumsByPrefix.clear();
+		playlistsByName.clear();
+		snapshot.albums.forEach(this::indexAlbum);
+		snapshot.playlists.forEach(playlist -> playlistsByName.putIfAbsent(playlist.name, playlist));
+	}
+
+	private void indexAlbum(final Album album) {
+		final String title = album.title;
+		int numberStart = title.length();
+		while (numberStart > 0 && Character.isDigit(title.charAt(numberStart - 1))) {
+			numberStart--;
+		}
+		if (numberStart < title.length()) {
+			try {
+				final int number = Integer.parseInt(title.substring(numberStart));
+				numberedAlbumsByPrefix.computeIfAbsent(title.substring(0, numberStart), prefix -> new TreeMap<>()).put(number, album);
+			} catch (final NumberFormatException e) {
+				// number is too long to be one of ours
+			}
+		}
+	}
+
+	static final class Snapshot {
+		@JsonProperty("account") public String account;
+		@JsonProperty("listed") public Instant listed;
+		@JsonProperty("albums") public List<Album> albums;
+		@JsonProperty("playlists") public List<Playlist> playlists;
+		@JsonProperty("frames") public List<FrameStatus> frames;
+	}
+
+}
@@ -1,87 +1,290 @@
 package com.aldaviva.microblog_favorites.services.nixplay;
 
+import com.aldaviva.microblog_favorites.FavoritesDownloader;
 import com.aldaviva.microblog_favorites.services.nixplay.data.Album;
 import com.aldaviva.microblog_favorites.services.nixplay.data.FrameStatus;
 import com.aldaviva.microblog_favorites.services.nixplay.data.Photo;
 import com.aldaviva.microblog_favorites.services.nixplay.data.Playlist;
 
+import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.client.Client;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.PasswordAuthentication;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 public class NixplayUploader implements AutoCloseable {
 
 	private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(NixplayUploader.class);
 
 	public static final int MAX_PHOTOS_PER_PLAYLIST = 2000; //Nixplay playlist limit
+	private static final int RECONCILE_BATCH_SIZE = Integer.getInteger("nixplayReconcileBatchSize", 50); // missing screenshots uploaded with one upload token
 
 	private final NixplayClient nixplayClient;
-	private List<Album> allAlbums;
-	private List<Playlist> allPlaylists;
-	private List<FrameStatus> allFrames;
+	private final NixplayMetadataCache metadataCache;
+	private final Map<String, Object> albumNamePrefixLocks = new ConcurrentHashMap<>();
+	private final Map<String, Album> currentAlbumsByPrefix = new ConcurrentHashMap<>();
 
-	public NixplayUploader(final Client httpClient) {
-		nixplayClient = new JerseyNixplayClient(httpClient, false);
+	/**
+	 * @param uploadHttpClient used to stream photos to S3, see {@link com.aldaviva.microblog_favorites.http.HttpClientFactory#createFixedLengthUploadClient()}
+	 */
+	public NixplayUploader(final Client httpClient, final Client uploadHttpClient) {
+		this(new JerseyNixplayClient(httpClient, uploadHttpClient, false), new File(FavoritesDownloader.ONLINE_SERVICES_BACKUP_DIRECTORY, "nixplay.json").toPath());
+	}
+
+	/**
+	 * @param metadataCacheFile where albums, playlists, and frames are saved between runs, see {@link NixplayMetadataCache}
+	 */
+	NixplayUploader(final NixplayClient nixplayClient, final Path metadataCacheFile) {
+		this.nixplayClient = nixplayClient;
+		metadataCache = new NixplayMetadataCache(nixplayClient, metadataCacheFile);
 	}
 
 	public void signIn(final PasswordAuthentication credentials) {
 		nixplayClient.signIn(credentials);
-		allAlbums = nixplayClient.listAlbums();
-		allPlaylists = nixplayClient.listPlaylists();
-		allFrames = nixplayClient.listFrameStatuses().frames;
+		metadataCache.load(credentials.getUserName());
 	}
 
-	public void uploadToAlbumAndPlaylist(final byte[] image, final String filename, final Album album, final Playlist playlist) {
-		final Photo nixplayPhoto = nixplayClient.uploadPhoto(image, filename, album);
-		nixplayClient.appendPhotosToPlaylist(playlist, nixplayPhoto);
-		LOGGER.debug("Uploaded " + filename + " to Nixplay album and playlist " + album.title);
-		album.photoCount++;
+	/**
+	 * Upload an image to the newest album whose title starts with the given prefix, as well as its playlist, creating them first if they don't exist or
+	 * are full. Safe to call from multiple threads: uploads with different prefixes run in parallel, but uploads with the same prefix run one at a time so
+	 * that albums don't overflow.
+	 * @param image streamed from disk, and never read into memory all at once
+	 */
+	public void uploadToAlbumAndPlaylist(final File image, final String albumNamePrefix) {
+		uploadToAlbumAndPlaylist(List.of(image), albumNamePrefix);
 	}
 
-	public Album getOrCreateAlbum(final String albumNamePrefix) {
-		int maxAlbumNumber = 0;
-		Album maxAlbum = null;
-		for (final Album album : allAlbums) {
-			if (album.title.startsWith(albumNamePrefix)) {
+	/**
+	 * <p>Like {@link #uploadToAlbumAndPlaylist(File, String)}, but the images are uploaded in batches, with one batch per album that they fill. Each batch
+	 * is sent to Nixplay concurrently and appended to its playlist in one request.</p>
+	 *
+	 * <p>If Nixplay rejects a request, the cached albums and playlists are listed again once, in case they were changed on the Nixplay website, and the
+	 * failed step is retried. Images that are already in an album are never uploaded again: only the images from a batch that didn't reach Nixplay are
+	 * retried, and if only adding them to the playlist failed, then only that is retried.</p>
+	 */
+	public void uploadToAlbumAndPlaylist(final List<File> images, final String albumNamePrefix) {
+		synchronized (albumNamePrefixLocks.computeIfAbsent(albumNamePrefix, prefix -> new Object())) {
+			final List<File> remainingImages = new ArrayList<>(images);
+			while (!remainingImages.isEmpty()) {
 				try {
-					final int albumNumber = Integer.parseInt(album.title.substring(albumNamePrefix.length()));
-					maxAlbumNumber = Math.max(albumNumber, maxAlbumNumber);
-					if (albumNumber == maxAlbumNumber) {
-						maxAlbum = album;
+					uploadToCurrentAlbumAndPlaylist(remainingImages, albumNamePrefix);
+				} catch (final WebApplicationException | PartialUploadException e) {
+					final boolean isRejectedByNixplay = e instanceof WebApplicationException || e.getCause() instanceof WebApplicationException;
+					if (!isRejectedByNixplay || metadataCache.isRevalidated()) {
+						throw e;
+					}
+					// the cached album or playlist may have been changed or deleted on the Nixplay website since it was cached
+					LOGGER.info("Nixplay upload to cached album failed ({}), listing albums and playlists again and retrying {} images", e.getMessage(),
+					    remainingImages.size());
+					revalidateMetadata();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Upload as many images as fit in the current album. Images are removed from the start of {@code remainingImages} once they are in the album, even if
+	 * the upload then fails, so that retrying won't upload them again.
+	 */
+	private void uploadToCurrentAlbumAndPlaylist(final List<File> remainingImages, final String albumNamePrefix) {
+		final Album album = getOrCreateAlbum(albumNamePrefix);
+		final List<File> batch = remainingImages.subList(0, Math.min(remainingImages.size(), MAX_PHOTOS_PER_PLAYLIST - album.photoCount));
+		try {
+			uploadBatchToAlbumAndPlaylist(new ArrayList<>(batch), album);
+			batch.clear();
+		} catch (final PartialUploadException e) {
+			batch.retainAll(e.getFailedPhotoFiles());
+			throw e;
+		}
+	}
+
+	/**
+	 * The album's photo count is saved as soon as the photos are in it, so that if this run crashes, the next one doesn't put more photos in the album than
+	 * it can hold.
+	 * @throws PartialUploadException if only some of the images were uploaded, after adding those to the playlist
+	 */
+	private void uploadBatchToAlbumAndPlaylist(final List<File> batch, final Album album) {
+		final List<Photo> nixplayPhotos;
+		try {
+			// the photos are sent and waited on in virtual threads, while this thread only waits for the whole batch to finish
+			nixplayPhotos = JerseyNixplayClient.await(nixplayClient.uploadPhotosAsync(batch, album));
+		} catch (final PartialUploadException e) {
+			final List<Photo> sentPhotos = new ArrayList<>(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				if (!e.getFailedPhotoFiles().contains(batch.get(i))) {
+					sentPhotos.add(e.getUploadedPhotos().get(i));
+				}
+			}
+			album.photoCount += sentPhotos.size();
+			metadataCache.save();
+			appendToPlaylist(sentPhotos, album);
+			throw e;
+		}
+		album.photoCount += batch.size();
+		metadataCache.save();
+		appendToPlaylist(nixplayPhotos, album);
+	}
+
+	/**
+	 * Add photos to the playlist of the album they were uploaded to, listing the playlists again and retrying once if Nixplay rejects the cached playlist.
+	 * Never uploads the photos again.
+	 */
+	private void appendToPlaylist(final List<Photo> nixplayPhotos, final Album album) {
+		try {
+			JerseyNixplayClient.await(appendToPlaylistAsync(nixplayPhotos, album, getOrCreatePlaylist(album)));
+		} catch (final WebApplicationException e) {
+			if (metadataCache.isRevalidated()) {
+				throw e;
+			}
+			LOGGER.info("Adding photos to cached Nixplay playlist failed ({}), listing albums and playlists again and retrying", e.getMessage());
+			revalidateMetadata();
+			JerseyNixplayClient.await(appendToPlaylistAsync(nixplayPhotos, album, getOrCreatePlaylist(album)));
+		}
+	}
+
+	private void revalidateMetadata() {
+		metadataCache.revalidate();
+		currentAlbumsByPrefix.clear();
+	}
+
+	/**
+	 * @param nixplayPhotos uploaded photos, including {@code null} for any that couldn't be found after uploading
+	 */
+	private CompletableFuture<Void> appendToPlaylistAsync(final List<Photo> nixplayPhotos, final Album album, final Playlist playlist) {
+		final Photo[] foundPhotos = nixplayPhotos.stream().filter(Objects::nonNull).toArray(Photo[]::new);
+		if (foundPhotos.length < nixplayPhotos.size()) {
+			LOGGER.warn("Could not find {} of {} photos after uploading them to Nixplay album {}, so they won't be added to its playlist",
+			    nixplayPhotos.size() - foundPhotos.length, nixplayPhotos.size(), album.title);
+		}
+		final CompletableFuture<Void> appended = foundPhotos.length > 0 ? nixplayClient.appendPhotosToPlaylistAsync(playlist, foundPhotos)
+		    : CompletableFuture.completedFuture(null);
+		return appended.thenRun(() -> LOGGER.debug("Uploaded {} photos to Nixplay album and playlist {}", nixplayPhotos.size(), album.title));
+	}
+
+	/**
+	 * <p>Upload any of the given saved screenshots that are missing from every album with the given prefix. This recovers photos that were saved to disk
+	 * by a run that crashed before uploading them, which would otherwise never be offered again, since they are already in the saved post index.</p>
+	 *
+	 * <p>A screenshot is already uploaded if any of the albums has a photo with the same filename, or, for photos that Nixplay renamed, the same MD5 hash.
+	 * Screenshots aren't compared to one album in particular, because new uploads go to the newest album with room, so a subdirectory of screenshots and
+	 * the album with the same number don't hold the same posts. Only screenshots whose filenames aren't in any album are read from disk to be hashed.</p>
+	 *
+	 * <p>Missing screenshots are uploaded like new ones, to the newest album until it fills up, in batches of {@code -DnixplayReconcileBatchSize}, and the
+	 * photos in each batch are sent concurrently.</p>
+	 * @param savedImages oldest first
+	 * @return number of screenshots uploaded
+	 */
+	public int reconcileAlbums(final List<File> savedImages, final String albumNamePrefix) {
+		synchronized (albumNamePrefixLocks.computeIfAbsent(albumNamePrefix, prefix -> new Object())) {
+			final Set<String> uploadedFilenames = new HashSet<>();
+			final Set<String> uploadedMd5s = new HashSet<>();
+			final List<Album> albums = metadataCache.getAlbums(albumNamePrefix);
+			for (final Album album : albums) {
+				final List<Photo> uploadedPhotos = listAllPhotos(album);
+				album.photoCount = uploadedPhotos.size();
+				for (final Photo photo : uploadedPhotos) {
+					uploadedFilenames.add(photo.filename);
+					if (photo.md5 != null) {
+						uploadedMd5s.add(photo.md5);
 					}
-				} catch (final NumberFormatException e) {
-					// continue to next album
 				}
 			}
+			metadataCache.save();
+
+			final List<File> missingImages = savedImages.parallelStream()
+			    .filter(image -> !uploadedFilenames.contains(image.getName()) && !uploadedMd5s.contains(md5(image)))
+			    .collect(Collectors.toList());
+			if (missingImages.isEmpty()) {
+				LOGGER.debug("All {} saved screenshots are already in the {} Nixplay albums starting with {}", savedImages.size(), albums.size(),
+				    albumNamePrefix);
+				return 0;
+			}
+			LOGGER.info("Uploading {} saved screenshots missing from the {} Nixplay albums starting with {}", missingImages.size(), albums.size(),
+			    albumNamePrefix);
+
+			for (int batchStart = 0; batchStart < missingImages.size(); batchStart += RECONCILE_BATCH_SIZE) {
+				uploadToAlbumAndPlaylist(missingImages.subList(batchStart, Math.min(missingImages.size(), batchStart + RECONCILE_BATCH_SIZE)), albumNamePrefix);
+			}
+			return missingImages.size();
+		}
+	}
+
+	private List<Photo> listAllPhotos(final Album album) {
+		final List<Photo> photos = new ArrayList<>();
+		for (int page = 1;; page++) {
+			final List<Photo> pagePhotos = nixplayClient.getPhotosFromAlbum(album, page, MAX_PHOTOS_PER_PLAYLIST);
+			photos.addAll(pagePhotos);
+			if (pagePhotos.size() < MAX_PHOTOS_PER_PLAYLIST) {
+				return photos;
+			}
+		}
+	}
+
+	/**
+	 * @return lowercase hexadecimal MD5 hash of the file, in the same format as {@link Photo#md5}
+	 */
+	private static String md5(final File file) {
+		try (InputStream fileStream = Files.newInputStream(file.toPath())) {
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			final byte[] buffer = new byte[64 * 1024];
+			for (int length; (length = fileStream.read(buffer)) != -1;) {
+				digest.update(buffer, 0, length);
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (final IOException | NoSuchAlgorithmException e) {
+			throw new RuntimeException("Failed to hash " + file, e);
 		}
+	}
 
-		if (maxAlbum != null && maxAlbum.photoCount < MAX_PHOTOS_PER_PLAYLIST) {
-			return maxAlbum;
+	/**
+	 * The newest album for each prefix is looked up once, then reused until it fills up.
+	 */
+	public synchronized Album getOrCreateAlbum(final String albumNamePrefix) {
+		final Album currentAlbum = currentAlbumsByPrefix.computeIfAbsent(albumNamePrefix, metadataCache::getNewestAlbum);
+		if (currentAlbum != null && currentAlbum.photoCount < MAX_PHOTOS_PER_PLAYLIST) {
+			return currentAlbum;
 		} else {
-			final Album newAlbum = nixplayClient.createAlbum(albumNamePrefix + (maxAlbumNumber + 1));
-			allAlbums.add(newAlbum);
+			final Album newAlbum = nixplayClient.createAlbum(albumNamePrefix + (metadataCache.getNewestAlbumNumber(albumNamePrefix) + 1));
+			metadataCache.addAlbum(newAlbum);
+			currentAlbumsByPrefix.put(albumNamePrefix, newAlbum);
 			LOGGER.info("Created Nixplay album " + newAlbum.title);
 			return newAlbum;
 		}
 	}
 
-	public Playlist getOrCreatePlaylist(final Album album) {
+	public synchronized Playlist getOrCreatePlaylist(final Album album) {
 		final String albumTitle = album.title;
-		return allPlaylists.stream().filter(playlist -> albumTitle.equals(playlist.name)).findAny()
-		    .orElseGet(() -> {
-			    final Playlist playlist = nixplayClient.createPlaylist(albumTitle);
-			    allPlaylists.add(playlist);
-			    LOGGER.info("Created Nixplay playlist " + albumTitle);
-			    for (final FrameStatus frame : allFrames) {
-				    nixplayClient.enablePlaylistOnFrame(playlist, frame);
-				    LOGGER.info("Enabled Nixplay playlist on frame " + frame.framePk);
-			    }
-			    return playlist;
-		    });
+		Playlist playlist = metadataCache.getPlaylist(albumTitle);
+		if (playlist == null) {
+			playlist = nixplayClient.createPlaylist(albumTitle);
+			metadataCache.addPlaylist(playlist);
+			LOGGER.info("Created Nixplay playlist " + albumTitle);
+			for (final FrameStatus frame : metadataCache.getFrames()) {
+				nixplayClient.enablePlaylistOnFrame(playlist, frame);
+				LOGGER.info("Enabled Nixplay playlist on frame " + frame.framePk);
+			}
+		}
+		return playlist;
 	}
 
 	@Override
 	public void close() throws Exception {
+		metadataCache.save();
 		nixplayClient.close();
 	}
 
@@ -0,0 +1,40 @@
+package com.aldaviva.microblog_favorites.services.nixplay;
+
+import com.aldaviva.microblog_favorites.services.nixplay.data.Photo;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Some photos in a batch failed to upload after others had already been sent to Nixplay. The photos that were sent are in the album now, so only
+ * {@link #getFailedPhotoFiles()} need to be uploaded again.
+ */
+public class PartialUploadException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<Photo> uploadedPhotos;
+	private final List<File> failedPhotoFiles;
+
+	PartialUploadException(final String message, final Throwable cause, final List<Photo> uploadedPhotos, final List<File> failedPhotoFiles) {
+		super(message, cause);
+		this.uploadedPhotos = uploadedPhotos;
+		this.failedPhotoFiles = failedPhotoFiles;
+	}
+
+	/**
+	 * @return the photos that were uploaded, in the same order as the batch's photo files, with {@code null} for any that failed, or that were uploaded but
+	 * could not be found in the album
+	 */
+	public List<Photo> getUploadedPhotos() {
+		return uploadedPhotos;
+	}
+
+	/**
+	 * @return photo files from the batch that never reached Nixplay, either because they failed or because they were skipped after the first failure
+	 */
+	public List<File> getFailedPhotoFiles() {
+		return failedPhotoFiles;
+	}
+
+}
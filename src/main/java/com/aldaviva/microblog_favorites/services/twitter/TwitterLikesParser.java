@@ -0,0 +1,356 @@
+package com.aldaviva.microblog_favorites.services.twitter;
+
+import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomObjectMapperProvider;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jakarta.ws.rs.core.UriBuilder;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.OffsetDateTime;
+import java.time.Year;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * <p>Reads the liked tweets out of a page of the GraphQL {@code Likes} timeline, separately from {@link TwitterGraphQlDownloader} so that it can be run
+ * without Twitter credentials.</p>
+ *
+ * <p>Each page is several hundred kilobytes of JSON, almost all of which is user profiles, media variants, view counts, and other data that isn't
+ * saved. Instead of building a tree of the whole response, this streams through it, skipping every subtree except the few fields that become a
+ * {@link FavoriteTweet}, so that skipped values are never turned into strings or nodes. Fields may appear in any order.</p>
+ */
+public final class TwitterLikesParser {
+
+	private static final UriBuilder POST_PAGE_URI = UriBuilder.fromUri("https://x.com/{author}/status/{tweetid}");
+	private static final String POST_EMBEDDED_PAGE_URI_PREFIX = "https://platform.twitter.com/embed/Tweet.html?dnt=false&embedId=twitter-widget-0&frame=false&hideCard=false&hideThread=false&id=";
+	private static final String POST_EMBEDDED_PAGE_URI_SUFFIX = "&lang=en&theme=dark";
+	private static final UriBuilder POST_EMBEDDED_PAGE_URI = UriBuilder.fromUri(POST_EMBEDDED_PAGE_URI_PREFIX + "{tweetid}" + POST_EMBEDDED_PAGE_URI_SUFFIX);
+	static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss xx yyyy"); // Thu Jan 16 19:15:41 +0000 2025
+	private static final String MONTH_ABBREVIATIONS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+	private static final String DAY_OF_WEEK_ABBREVIATIONS = "MonTueWedThuFriSatSun";
+	private static final int MAX_OFFSET_SECONDS = 18 * 3600;
+	private static final JsonFactory JSON_FACTORY = CustomObjectMapperProvider.OBJECT_MAPPER.getFactory();
+
+	private TwitterLikesParser() {
+	}
+
+	/**
+	 * @param graphResponse body of a {@code Likes} GraphQL response, which is closed afterwards
+	 * @param favorites the page's tweets are appended to this list, newest first
+	 * @return cursor for the following page, or {@code null} if there isn't one
+	 */
+	public static String parseLikesPage(final InputStream graphResponse, final List<FavoriteTweet> favorites) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(graphResponse)) {
+			parser.nextToken();
+			if (!enterField(parser, "data") || !enterField(parser, "user") || !enterField(parser, "result") || !enterField(parser, "timeline_v2")
+			    || !enterField(parser, "timeline") || !enterField(parser, "instructions")
+			    || parser.currentToken() != JsonToken.START_ARRAY || parser.nextToken() != JsonToken.START_OBJECT // only the first instruction
+			    || !enterField(parser, "entries") || parser.currentToken() != JsonToken.START_ARRAY) {
+				return null;
+			}
+
+			String nextPageCursor = null;
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				final String cursor = parseEntry(parser, favorites);
+				if (cursor != null) {
+					nextPageCursor = cursor;
+				}
+			}
+			return nextPageCursor;
+		}
+	}
+
+	/**
+	 * Parse one timeline entry, leaving the parser at the end of it.
+	 * @return the entry's cursor if it is the Bottom cursor, otherwise {@code null}
+	 */
+	private static String parseEntry(final JsonParser parser, final List<FavoriteTweet> favorites) throws IOException {
+		final int entryContainerDepth = getContainerDepth(parser);
+		String entryType = null;
+		String cursorType = null;
+		String cursorValue = null;
+		TweetFields tweet = null;
+
+		if (enterField(parser, "content") && parser.currentToken() == JsonToken.START_OBJECT) {
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String fieldName = parser.currentName();
+				parser.nextToken();
+				switch (fieldName) {
+				case "entryType":
+					entryType = parser.getValueAsString();
+					break;
+				case "cursorType":
+					cursorType = parser.getValueAsString();
+					break;
+				case "value":
+					cursorValue = parser.getValueAsString();
+					break;
+				case "itemContent":
+					final int itemContentContainerDepth = getContainerDepth(parser);
+					if (enterField(parser, "tweet_results") && enterField(parser, "result")) {
+						tweet = parseTweetResult(parser);
+					}
+					finishValue(parser, itemContentContainerDepth);
+					break;
+				default:
+					parser.skipChildren();
+				}
+			}
+		}
+		finishValue(parser, entryContainerDepth);
+
+		if ("TimelineTimelineItem".equals(entryType)) {
+			favorites.add(toFavoriteTweet(tweet != null ? tweet : new TweetFields()));
+		} else if ("TimelineTimelineCursor".equals(entryType) && "Bottom".equals(cursorType)) {
+			return cursorValue;
+		}
+		return null;
+	}
+
+	/**
+	 * Parse a {@code tweet_results.result} object, leaving the parser at the end of it.
+	 * @return the fields of the tweet, unwrapped from {@code TweetWithVisibilityResults} if necessary
+	 */
+	private static TweetFields parseTweetResult(final JsonParser parser) throws IOException {
+		final TweetFields tweet = new TweetFields();
+		TweetFields wrappedTweet = null;
+		String typeName = null;
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return tweet;
+		}
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String fieldName = parser.currentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "__typename":
+				typeName = parser.getValueAsString();
+				break;
+			case "rest_id":
+				tweet.id = parser.getValueAsString();
+				break;
+			case "tweet":
+				wrappedTweet = parseTweetResult(parser);
+				break;
+			case "core":
+				final int coreContainerDepth = getContainerDepth(parser);
+				if (enterField(parser, "user_results") && enterField(parser, "result") && enterField(parser, "legacy")) {
+					parseAuthor(parser, tweet);
+				}
+				finishValue(parser, coreContainerDepth);
+				break;
+			case "legacy":
+				parseTweetLegacy(parser, tweet);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+
+		return "TweetWithVisibilityResults".equals(typeName) && wrappedTweet != null ? wrappedTweet : tweet;
+	}
+
+	private static void parseAuthor(final JsonParser parser, final TweetFields tweet) throws IOException {
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String fieldName = parser.currentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "screen_name":
+				tweet.authorHandle = parser.getValueAsString();
+				break;
+			case "name":
+				tweet.authorName = parser.getValueAsString();
+				break;
+			case "protected":
+				tweet.isAuthorProtected = parser.getValueAsBoolean(false);
+				break;
+			case "possibly_sensitive":
+				tweet.isAuthorPossiblySensitive = parser.getValueAsBoolean(false);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private static void parseTweetLegacy(final JsonParser parser, final TweetFields tweet) throws IOException {
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String fieldName = parser.currentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "created_at":
+				tweet.createdAt = parser.getValueAsString();
+				break;
+			case "full_text":
+				tweet.fullText = parser.getValueAsString("");
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private static FavoriteTweet toFavoriteTweet(final TweetFields tweet) {
+		final FavoriteTweet favorite = new FavoriteTweet();
+		favorite.setId(tweet.id);
+		favorite.setAuthorHandle(tweet.authorHandle);
+		favorite.setAuthorName(tweet.authorName);
+		favorite.setProtected(tweet.isAuthorProtected || tweet.isAuthorPossiblySensitive);
+		favorite.setDate(parseDate(tweet.createdAt));
+		favorite.setBody(tweet.fullText);
+
+		// Handles are only letters, digits, and underscores, so they don't need the templating and encoding that UriBuilder does
+		if (isUriSafe(favorite.getAuthorHandle()) && isUriSafe(favorite.getId())) {
+			favorite.setUrl(URI.create("https://x.com/" + favorite.getAuthorHandle() + "/status/" + favorite.getId()));
+			favorite.setEmbeddedUrl(URI.create(POST_EMBEDDED_PAGE_URI_PREFIX + favorite.getId() + POST_EMBEDDED_PAGE_URI_SUFFIX));
+		} else {
+			favorite.setUrl(POST_PAGE_URI.build(favorite.getAuthorHandle(), favorite.getId()));
+			favorite.setEmbeddedUrl(POST_EMBEDDED_PAGE_URI.build(favorite.getId()));
+		}
+		return favorite;
+	}
+
+	/**
+	 * Parse a date like {@code Thu Jan 16 19:15:41 +0000 2025} by the position of each field, which allocates a fraction of what {@link #DATE_FORMAT}
+	 * does, falling back to it for anything that isn't laid out exactly like that or isn't a valid date, such as a day of the week that doesn't match the
+	 * date, so that those are resolved or rejected the same way as before.
+	 */
+	static Instant parseDate(final String date) {
+		if (date != null && date.length() == 30 && date.charAt(3) == ' ' && date.charAt(7) == ' ' && date.charAt(10) == ' ' && date.charAt(13) == ':'
+		    && date.charAt(16) == ':' && date.charAt(19) == ' ' && date.charAt(25) == ' ' && (date.charAt(20) == '+' || date.charAt(20) == '-')) {
+			final int month = parseMonth(date, 4);
+			final int day = parseDigits(date, 8, 2);
+			final int hour = parseDigits(date, 11, 2);
+			final int minute = parseDigits(date, 14, 2);
+			final int second = parseDigits(date, 17, 2);
+			final int offsetHours = parseDigits(date, 21, 2);
+			final int offsetMinutes = parseDigits(date, 23, 2);
+			final int year = parseDigits(date, 26, 4);
+			final int offsetSeconds = offsetHours * 3600 + offsetMinutes * 60;
+			if (month > 0 && day > 0 && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60 && offsetHours >= 0
+			    && offsetMinutes >= 0 && offsetMinutes < 60 && offsetSeconds <= MAX_OFFSET_SECONDS && year > 0 && day <= Month.of(month).length(Year.isLeap(year))) {
+				final LocalDate localDate = LocalDate.of(year, month, day);
+				if (DAY_OF_WEEK_ABBREVIATIONS.regionMatches((localDate.getDayOfWeek().getValue() - 1) * 3, date, 0, 3)) {
+					return Instant.ofEpochSecond(localDate.toEpochDay() * 86400 + hour * 3600 + minute * 60 + second
+					    - offsetSeconds * (date.charAt(20) == '-' ? -1 : 1));
+				}
+			}
+		}
+		return OffsetDateTime.parse(date, DATE_FORMAT).toInstant();
+	}
+
+	/**
+	 * @return 1 for January through 12 for December, or -1 if the three characters at {@code start} aren't a month abbreviation
+	 */
+	private static int parseMonth(final String input, final int start) {
+		for (int month = 0; month < 12; month++) {
+			if (MONTH_ABBREVIATIONS.regionMatches(month * 3, input, start, 3)) {
+				return month + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number, or a negative number if any of the characters aren't digits
+	 */
+	private static int parseDigits(final String input, final int start, final int length) {
+		int result = 0;
+		for (int i = start; i < start + length; i++) {
+			final char digit = input.charAt(i);
+			if (digit < '0' || digit > '9') {
+				return Integer.MIN_VALUE;
+			}
+			result = result * 10 + (digit - '0');
+		}
+		return result;
+	}
+
+	private static boolean isUriSafe(final String pathSegment) {
+		if (pathSegment == null || pathSegment.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < pathSegment.length(); i++) {
+			final char c = pathSegment.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Move into the value of a field of the object that starts at the current token, skipping any fields before it.
+	 * @return {@code true} if the parser is now at the start of the field's value, or {@code false} if the object doesn't contain the field (or isn't an
+	 * object), in which case the parser is at the end of the object
+	 */
+	private static boolean enterField(final JsonParser parser, final String fieldName) throws IOException {
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return false;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final boolean isMatch = fieldName.equals(parser.currentName());
+			parser.nextToken();
+			if (isMatch) {
+				return true;
+			}
+			parser.skipChildren();
+		}
+		return false;
+	}
+
+	/**
+	 * @return nesting depth of the object or array that contains the current value, to pass to {@link #finishValue} once done with the value
+	 */
+	private static int getContainerDepth(final JsonParser parser) {
+		final int depth = parser.getParsingContext().getNestingDepth();
+		return parser.currentToken().isStructStart() ? depth - 1 : depth;
+	}
+
+	/**
+	 * Skip whatever is left of a value after reading part of it, such as the other fields of every object that {@link #enterField} moved into, leaving
+	 * the parser at the value's last token.
+	 * @param containerDepth from {@link #getContainerDepth} when the parser was at the start of the value
+	 */
+	private static void finishValue(final JsonParser parser, final int containerDepth) throws IOException {
+		while (parser.getParsingContext().getNestingDepth() > containerDepth) {
+			final JsonToken token = parser.nextToken();
+			if (token == null) {
+				throw new EOFException("Likes response ended in the middle of a value");
+			} else if (token.isStructStart()) {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Values of one tweet, collected while its fields go by in whatever order they are in.
+	 */
+	private static final class TweetFields {
+		String id;
+		String authorHandle;
+		String authorName;
+		boolean isAuthorProtected;
+		boolean isAuthorPossiblySensitive;
+		String createdAt;
+		String fullText = "";
+	}
+
+}
@@ -0,0 +1,229 @@
+package com.aldaviva.microblog_favorites;
+
+import com.aldaviva.microblog_favorites.PostIdSet.Encoding;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link PostIdSet} against the {@code HashSet<String>} it replaced: every ID that was added must be found, including after the table grows,
+ * when IDs collide in the table, and when IDs can't be encoded, and no ID that wasn't added may be found, even if it encodes to a similar number.
+ */
+class PostIdSetTest {
+
+	private static final int INITIAL_CAPACITY = 1024; // same as PostIdSet's
+
+	@Test
+	void findsEveryIdAfterGrowing() {
+		final PostIdSet set = new PostIdSet(Encoding.DECIMAL);
+		final List<String> ids = new ArrayList<>();
+		for (long snowflake = 1879990000000000000L; ids.size() < 100_000; snowflake += 4096 + ids.size() % 7) {
+			ids.add(Long.toString(snowflake));
+		}
+
+		for (int i = 0; i < ids.size(); i++) {
+			assertTrue(set.add(ids.get(i)));
+			assertEquals(i + 1, set.size());
+			if (Integer.bitCount(i + 1) == 1 || i == INITIAL_CAPACITY * 3 / 4) { // around each resize
+				for (int j = 0; j <= i; j++) {
+					assertTrue(set.contains(ids.get(j)), ids.get(j));
+				}
+			}
+		}
+
+		for (final String id : ids) {
+			assertTrue(set.contains(id), id);
+			assertFalse(set.add(id), id);
+			assertFalse(set.contains(Long.toString(Long.parseLong(id) + 1)), id + " + 1");
+		}
+		assertEquals(ids.size(), set.size());
+	}
+
+	/**
+	 * IDs that hash to the same slot, including the last one, so that probing wraps around to the start of the table.
+	 */
+	@Test
+	void collisions() {
+		for (final int slot : new int[] { 0, 17, INITIAL_CAPACITY - 1 }) {
+			final List<Long> collidingIds = new ArrayList<>();
+			for (long id = 0; collidingIds.size() < 200; id++) {
+				if ((PostIdSet.hashEncoded(id) & (INITIAL_CAPACITY - 1)) == slot) {
+					collidingIds.add(id);
+				}
+			}
+
+			final PostIdSet set = new PostIdSet(Encoding.DECIMAL);
+			final List<Long> added = collidingIds.subList(0, 100);
+			final List<Long> notAdded = collidingIds.subList(100, collidingIds.size());
+			for (final long id : added) {
+				assertTrue(set.add(Long.toString(id)));
+			}
+			for (final long id : added) {
+				assertTrue(set.contains(Long.toString(id)), "slot " + slot + ", ID " + id);
+				assertFalse(set.add(Long.toString(id)), "slot " + slot + ", ID " + id);
+			}
+			for (final long id : notAdded) {
+				assertFalse(set.contains(Long.toString(id)), "slot " + slot + ", ID " + id);
+			}
+			assertEquals(added.size(), set.size());
+		}
+	}
+
+	/**
+	 * The Bloom filter may let some IDs through to the table that aren't there, but it must never reject one that is, or a saved post would be saved
+	 * again. Mixes encodable and unencodable IDs, since both share the filter, and it is rebuilt each time the table grows.
+	 */
+	@Test
+	void bloomFilterHasNoFalseNegatives() {
+		final Random random = new Random(7);
+		final PostIdSet set = new PostIdSet(Encoding.DECIMAL);
+		final Set<String> expected = new HashSet<>();
+		for (int i = 0; i < 200_000; i++) {
+			final String id = i % 10 == 0 ? "at://did:plc:" + Long.toString(random.nextLong(), 36) : Long.toString(random.nextLong() & Long.MAX_VALUE);
+			assertEquals(expected.add(id), set.add(id), id);
+		}
+
+		for (final String id : expected) {
+			assertTrue(set.contains(id), id);
+		}
+		assertEquals(expected.size(), set.size());
+
+		int falsePositives = 0;
+		for (int i = 0; i < 100_000; i++) {
+			final String id = Long.toString(random.nextLong() & Long.MAX_VALUE);
+			if (!expected.contains(id) && set.contains(id)) {
+				falsePositives++;
+			}
+		}
+		assertEquals(0, falsePositives, "the table must still reject IDs that get through the filter");
+	}
+
+	@Test
+	void unencodableDecimalIds() {
+		final PostIdSet set = new PostIdSet(Encoding.DECIMAL);
+		final List<String> ids = List.of("", "abc", "12a", "-5", "+5", " 5", "5 ", "１２３", "3lbyvvwmrcc2q", "at://did:plc:abc/app.bsky.feed.post/3lbyvvwmrcc2q");
+		for (final String id : ids) {
+			assertEquals(-1, Encoding.DECIMAL.encode(id), id);
+			assertTrue(set.add(id), id);
+		}
+		assertTrue(set.add("5"));
+
+		for (final String id : ids) {
+			assertTrue(set.contains(id), id);
+		}
+		assertTrue(set.contains("5"));
+		assertFalse(set.contains("xyz"));
+		assertFalse(set.contains("6"));
+		assertEquals(ids.size() + 1, set.size());
+	}
+
+	/**
+	 * {@code 0123} and {@code 123} are different post IDs, so only the canonical form may be encoded as a number.
+	 */
+	@Test
+	void leadingZeros() {
+		assertEquals(0, Encoding.DECIMAL.encode("0"));
+		assertEquals(123, Encoding.DECIMAL.encode("123"));
+		assertEquals(-1, Encoding.DECIMAL.encode("0123"));
+		assertEquals(-1, Encoding.DECIMAL.encode("00"));
+
+		final PostIdSet set = new PostIdSet(Encoding.DECIMAL);
+		assertTrue(set.add("123"));
+		assertFalse(set.contains("0123"));
+		assertTrue(set.add("0123"));
+		assertTrue(set.add("00123"));
+		assertTrue(set.add("0"));
+		assertFalse(set.contains("00"));
+		assertTrue(set.add("00"));
+		assertEquals(5, set.size());
+		for (final String id : List.of("123", "0123", "00123", "0", "00")) {
+			assertTrue(set.contains(id), id);
+		}
+	}
+
+	/**
+	 * Numbers that don't fit in a signed {@code long} must not wrap around to some other ID's number.
+	 */
+	@Test
+	void overflow() {
+		assertEquals(Long.MAX_VALUE, Encoding.DECIMAL.encode("9223372036854775807"));
+		assertEquals(-1, Encoding.DECIMAL.encode("9223372036854775808"));
+		assertEquals(-1, Encoding.DECIMAL.encode("9999999999999999999"));
+		assertEquals(-1, Encoding.DECIMAL.encode("18446744073709551615"));
+		assertEquals(-1, Encoding.DECIMAL.encode("18446744073709551616")); // 2^64, which would wrap to 0
+		assertEquals(-1, Encoding.DECIMAL.encode("27670116110564327423")); // 2^64 + 2^63 - 1, which would wrap to Long.MAX_VALUE
+
+		final PostIdSet set = new PostIdSet(Encoding.DECIMAL);
+		assertTrue(set.add("0"));
+		assertTrue(set.add("9223372036854775807"));
+		for (final String id : List.of("9223372036854775808", "18446744073709551616", "27670116110564327423", "123456789012345678901234567890")) {
+			assertFalse(set.contains(id), id);
+			assertTrue(set.add(id), id);
+			assertTrue(set.contains(id), id);
+		}
+		assertEquals(6, set.size());
+	}
+
+	@Test
+	void tidRoundTrip() {
+		final PostIdSet set = new PostIdSet(Encoding.TID);
+		final List<String> tids = List.of("3jzfcijpj2z2a", "3lbyvvwmrcc2q", "2222222222222", "bzzzzzzzzzzzz", "3kdgahf6ojs22");
+		final Set<Long> encodedTids = new HashSet<>();
+		for (final String tid : tids) {
+			final long encodedTid = Encoding.TID.encode(tid);
+			assertTrue(encodedTid >= 0, tid);
+			assertTrue(encodedTids.add(encodedTid), tid);
+			assertEquals(tid, decodeTid(encodedTid));
+			assertTrue(set.add(tid), tid);
+		}
+		assertEquals(0, Encoding.TID.encode("2222222222222"));
+		assertEquals(Long.MAX_VALUE, Encoding.TID.encode("bzzzzzzzzzzzz")); // b is 7, the highest first digit that leaves the top bit 0
+		assertTrue(Encoding.TID.encode("3jzfcijpj2z2a") < Encoding.TID.encode("3lbyvvwmrcc2q"), "TIDs sort the same way as their numbers");
+
+		for (final String tid : tids) {
+			assertTrue(set.contains(tid), tid);
+			assertFalse(set.add(tid), tid);
+		}
+		assertFalse(set.contains("3jzfcijpj2z2b"));
+		assertEquals(tids.size(), set.size());
+	}
+
+	@Test
+	void unencodableTids() {
+		final PostIdSet set = new PostIdSet(Encoding.TID);
+		final List<String> ids = List.of("", "3jzfcijpj2z2", "3jzfcijpj2z2aa", "3JZFCIJPJ2Z2A", "3jzfcijpj2z20", "3jzfcijpj2z21", "8222222222222", "c222222222222", "zzzzzzzzzzzzz",
+		    "3jzfcijpj2z2{", "3jzfcijpj2z2é", "1879990000000000000");
+		for (final String id : ids) {
+			assertEquals(-1, Encoding.TID.encode(id), id);
+			assertTrue(set.add(id), id);
+		}
+		assertTrue(set.add("3jzfcijpj2z2a"));
+
+		for (final String id : ids) {
+			assertTrue(set.contains(id), id);
+			assertFalse(set.add(id), id);
+		}
+		assertTrue(set.contains("3jzfcijpj2z2a"));
+		assertFalse(set.contains("3JZFCIJPJ2Z2B"));
+		assertEquals(ids.size() + 1, set.size());
+	}
+
+	private static String decodeTid(long encodedTid) {
+		final String alphabet = "234567abcdefghijklmnopqrstuvwxyz";
+		final char[] tid = new char[13];
+		for (int i = tid.length - 1; i >= 0; i--) {
+			tid[i] = alphabet.charAt((int) (encodedTid & 31));
+			encodedTid >>>= 5;
+		}
+		return new String(tid);
+	}
+
+}
@@ -0,0 +1,263 @@
+package com.aldaviva.microblog_favorites.jpeg;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcRecord;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcTypes;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks that splicing metadata into a screenshot produces exactly the same file as the commons-imaging rewriters it replaced, for screenshots encoded
+ * the way Chromium does, and for variations with and without a JFIF segment, with other APPn segments, and with metadata that's already there.
+ */
+class JpegMetadataSplicerTest {
+
+	private static final int APP0_MARKER = 0xe0;
+	private static final int APP1_MARKER = 0xe1;
+	private static final int APP2_MARKER = 0xe2;
+	private static final int APP13_MARKER = 0xed;
+	private static final int APP14_MARKER = 0xee;
+
+	@Test
+	void chromiumScreenshot() throws Exception {
+		final byte[] screenshot = screenshot();
+		assertEquals(APP0_MARKER, firstSegmentMarker(screenshot));
+		assertSplicedLikeRewriters(screenshot);
+	}
+
+	@Test
+	void withoutApp0() throws Exception {
+		final byte[] screenshot = insertSegment(removeFirstSegment(screenshot()), 2, APP2_MARKER, iccProfileSegmentData());
+		assertEquals(APP2_MARKER, firstSegmentMarker(screenshot));
+		assertSplicedLikeRewriters(screenshot);
+	}
+
+	@Test
+	void withOtherAppSegments() throws Exception {
+		byte[] screenshot = screenshot();
+		screenshot = insertSegment(screenshot, segmentEnd(screenshot, 2), APP14_MARKER, adobeSegmentData());
+		screenshot = insertSegment(screenshot, segmentEnd(screenshot, 2), APP2_MARKER, iccProfileSegmentData());
+		screenshot = insertSegment(screenshot, segmentEnd(screenshot, 2), APP1_MARKER, xmpSegmentData()); // APP1, but not EXIF
+		assertEquals(APP0_MARKER, firstSegmentMarker(screenshot));
+		assertSplicedLikeRewriters(screenshot);
+	}
+
+	@Test
+	void withoutApp0WithOtherAppSegments() throws Exception {
+		byte[] screenshot = removeFirstSegment(screenshot());
+		screenshot = insertSegment(screenshot, 2, APP14_MARKER, adobeSegmentData());
+		screenshot = insertSegment(screenshot, 2, APP1_MARKER, xmpSegmentData());
+		screenshot = insertSegment(screenshot, 2, APP2_MARKER, iccProfileSegmentData());
+		assertEquals(APP2_MARKER, firstSegmentMarker(screenshot));
+		assertSplicedLikeRewriters(screenshot);
+	}
+
+	@Test
+	void existingIptcFallsBackToRewriters() throws Exception {
+		final byte[] screenshot = JpegMetadataSplicer.rewrite(screenshot(), createExif("Old Author"), createIptcRecords("Old Author"));
+		assertFallsBackToRewriters(screenshot);
+	}
+
+	@Test
+	void existingIptcWithoutExifFallsBackToRewriters() throws Exception {
+		final byte[] screenshotWithIptc = JpegMetadataSplicer.rewrite(screenshot(), createExif("Old Author"), createIptcRecords("Old Author"));
+		final byte[] iptcSegment = findSegment(screenshotWithIptc, APP13_MARKER);
+		assertNotNull(iptcSegment);
+		final byte[] screenshot = screenshot();
+		assertFallsBackToRewriters(insertSegment(screenshot, segmentEnd(screenshot, 2), APP13_MARKER, iptcSegment));
+	}
+
+	@Test
+	void existingExifFallsBackToRewriters() throws Exception {
+		final byte[] screenshotWithExif = JpegMetadataSplicer.rewrite(screenshot(), createExif("Old Author"), createIptcRecords("Old Author"));
+		final byte[] exifSegment = findSegment(screenshotWithExif, APP1_MARKER);
+		assertNotNull(exifSegment);
+		final byte[] screenshot = screenshot();
+		assertFallsBackToRewriters(insertSegment(screenshot, segmentEnd(screenshot, 2), APP1_MARKER, exifSegment));
+	}
+
+	@Test
+	void withoutAnyAppSegments() throws Exception {
+		assertNull(JpegMetadataSplicer.splice(removeFirstSegment(screenshot()), createExif("Author"), createIptcRecords("Author")));
+	}
+
+	private static void assertSplicedLikeRewriters(final byte[] untaggedImage) throws ImageReadException, ImageWriteException, IOException {
+		final byte[] original = untaggedImage.clone();
+		final SplicedJpeg spliced = JpegMetadataSplicer.splice(untaggedImage, createExif("Author"), createIptcRecords("Author"));
+		assertNotNull(spliced, "image should be spliced, not rewritten");
+
+		final byte[] expected = JpegMetadataSplicer.rewrite(untaggedImage, createExif("Author"), createIptcRecords("Author"));
+		final byte[] actual = toByteArray(spliced);
+		assertEquals(expected.length, spliced.getLength());
+		assertArrayEquals(expected, actual);
+		assertArrayEquals(original, untaggedImage, "splicing must not modify the original image");
+	}
+
+	private static void assertFallsBackToRewriters(final byte[] untaggedImage) throws ImageReadException, ImageWriteException, IOException {
+		assertNull(JpegMetadataSplicer.splice(untaggedImage, createExif("Author"), createIptcRecords("Author")));
+
+		final byte[] expected = JpegMetadataSplicer.rewrite(untaggedImage, createExif("Author"), createIptcRecords("Author"));
+		assertArrayEquals(expected, toByteArray(JpegMetadataSplicer.addMetadata(untaggedImage, createExif("Author"), createIptcRecords("Author"))));
+	}
+
+	/**
+	 * Like FavoritesDownloader's metadata, but with fixed times. Each write gets its own output set, since writing one may change it.
+	 */
+	private static TiffOutputSet createExif(final String author) throws ImageWriteException {
+		final TiffOutputSet exif = new TiffOutputSet();
+		final TiffOutputDirectory rootDirectory = exif.getOrCreateRootDirectory();
+		rootDirectory.add(TiffTagConstants.TIFF_TAG_DATE_TIME, "2024:03:14 15:09:26");
+		rootDirectory.add(TiffTagConstants.TIFF_TAG_ARTIST, author + " (@author)");
+
+		final TiffOutputDirectory exifDirectory = exif.getOrCreateExifDirectory();
+		exifDirectory.add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, "2024:03:14 15:09:26");
+		exifDirectory.add(ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED, "2024:03:15 08:00:00");
+		return exif;
+	}
+
+	private static List<IptcRecord> createIptcRecords(final String author) {
+		final List<IptcRecord> records = new ArrayList<>();
+		records.add(new IptcRecord(IptcTypes.BYLINE, author));
+		records.add(new IptcRecord(IptcTypes.BYLINE_TITLE, "@author"));
+		records.add(new IptcRecord(IptcTypes.CAPTION_ABSTRACT, "Café menu, naïve résumé, long enough to wrap onto a second line of the post"));
+		records.add(new IptcRecord(IptcTypes.DATE_CREATED, "20240314"));
+		records.add(new IptcRecord(IptcTypes.SOURCE, "https://example.com/@author/112233445566778899"));
+		return records;
+	}
+
+	/**
+	 * @return a small JPEG encoded like Chromium's screenshots: baseline, quality 80, with only a JFIF segment, of some bars of text above a grainy photo
+	 */
+	private static byte[] screenshot() throws IOException {
+		final BufferedImage image = new BufferedImage(480, 360, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(0, 0, image.getWidth(), 120);
+		graphics.setColor(Color.DARK_GRAY);
+		for (int line = 0; line < 5; line++) {
+			graphics.fillRect(16, 16 + line * 20, 440 - line * 40, 10);
+		}
+		graphics.dispose();
+
+		final Random random = new Random(42);
+		for (int y = 120; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, ((x + random.nextInt(32)) & 0xff) << 16 | ((y + random.nextInt(32)) & 0xff) << 8 | random.nextInt(64));
+			}
+		}
+
+		final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		final ImageWriter writer = writers.next();
+		final ImageWriteParam writeParam = writer.getDefaultWriteParam();
+		writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		writeParam.setCompressionQuality(0.8f);
+
+		final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(jpeg)) {
+			writer.setOutput(output);
+			writer.write(null, new IIOImage(image, null, null), writeParam);
+		} finally {
+			writer.dispose();
+		}
+		return jpeg.toByteArray();
+	}
+
+	/**
+	 * @return the start of an ICC profile, followed by random bytes instead of the rest of the profile, which the rewriters don't read
+	 */
+	private static byte[] iccProfileSegmentData() {
+		final byte[] identifier = "ICC_PROFILE\0\1\1".getBytes(StandardCharsets.US_ASCII);
+		final byte[] segmentData = new byte[600];
+		new Random(7).nextBytes(segmentData);
+		System.arraycopy(identifier, 0, segmentData, 0, identifier.length);
+		return segmentData;
+	}
+
+	private static byte[] adobeSegmentData() {
+		return new byte[] { 'A', 'd', 'o', 'b', 'e', 0, 100, 0, 0, 0, 0, 1 };
+	}
+
+	private static byte[] xmpSegmentData() {
+		return "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"/>".getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int firstSegmentMarker(final byte[] jpeg) {
+		return jpeg[3] & 0xff;
+	}
+
+	private static int segmentEnd(final byte[] jpeg, final int position) {
+		return position + 2 + (((jpeg[position + 2] & 0xff) << 8) | (jpeg[position + 3] & 0xff));
+	}
+
+	/**
+	 * @param position where the new segment starts, which must be the start of an existing segment, such as 2 to insert it right after SOI
+	 * @return a copy of the image with a new segment inserted
+	 */
+	private static byte[] insertSegment(final byte[] jpeg, final int position, final int marker, final byte[] segmentData) {
+		final int segmentLength = segmentData.length + 2;
+		final byte[] result = new byte[jpeg.length + segmentLength + 2];
+		System.arraycopy(jpeg, 0, result, 0, position);
+		result[position] = (byte) 0xff;
+		result[position + 1] = (byte) marker;
+		result[position + 2] = (byte) (segmentLength >> 8);
+		result[position + 3] = (byte) segmentLength;
+		System.arraycopy(segmentData, 0, result, position + 4, segmentData.length);
+		System.arraycopy(jpeg, position, result, position + 2 + segmentLength, jpeg.length - position);
+		return result;
+	}
+
+	private static byte[] removeFirstSegment(final byte[] jpeg) {
+		final int firstSegmentEnd = segmentEnd(jpeg, 2);
+		final byte[] result = new byte[jpeg.length - (firstSegmentEnd - 2)];
+		System.arraycopy(jpeg, 0, result, 0, 2);
+		System.arraycopy(jpeg, firstSegmentEnd, result, 2, jpeg.length - firstSegmentEnd);
+		return result;
+	}
+
+	/**
+	 * @return the data, after the marker and length, of the first segment with the given marker before the scan data, or {@code null} if there is none
+	 */
+	private static byte[] findSegment(final byte[] jpeg, final int marker) {
+		int position = 2;
+		while ((jpeg[position + 1] & 0xff) != 0xda) {
+			final int segmentEnd = segmentEnd(jpeg, position);
+			if ((jpeg[position + 1] & 0xff) == marker) {
+				return Arrays.copyOfRange(jpeg, position + 4, segmentEnd);
+			}
+			position = segmentEnd;
+		}
+		return null;
+	}
+
+	private static byte[] toByteArray(final SplicedJpeg jpeg) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		jpeg.writeTo(bytes);
+		return bytes.toByteArray();
+	}
+
+}
@@ -0,0 +1,403 @@
+package com.aldaviva.microblog_favorites.services.nixplay;
+
+import com.aldaviva.microblog_favorites.http.HttpClientFactory;
+import com.aldaviva.microblog_favorites.services.nixplay.data.Album;
+import com.aldaviva.microblog_favorites.services.nixplay.data.Photo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Uploads photos from many threads at once to a local stand-in for the Nixplay API, upload monitor, and S3, and checks that each photo reaches S3
+ * exactly once and is found in the right album afterwards. Threads share albums, and photos in different threads have the same filenames, so only the
+ * MD5 hashes tell them apart.
+ */
+class JerseyNixplayClientConcurrencyTest {
+
+	private static final int THREADS = 16;
+	private static final int UPLOADS_PER_THREAD = 12; // alternating single photos and batches
+	private static final int PHOTOS_PER_BATCH = 4;
+	private static final int ALBUMS = 3;
+	private static final String SESSION_ID = "stand-in-session";
+
+	@TempDir
+	Path photoDirectory;
+
+	private NixplayStandIn nixplay;
+	private JerseyNixplayClient nixplayClient;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		nixplay = new NixplayStandIn();
+		final HttpClientFactory httpClientFactory = new HttpClientFactory(HttpClientFactory.Connector.APACHE);
+		nixplayClient = new JerseyNixplayClient(httpClientFactory.createClient(), httpClientFactory.createFixedLengthUploadClient(), true,
+		    nixplay.getBaseUri().resolve("api/"), nixplay.getBaseUri().resolve("upload-monitor/"));
+		nixplayClient.signIn(SESSION_ID);
+	}
+
+	@AfterEach
+	void tearDown() {
+		nixplayClient.close();
+		nixplay.close();
+	}
+
+	@Test
+	@Timeout(value = 2, unit = TimeUnit.MINUTES)
+	void concurrentUploadsArriveExactlyOnce() throws Exception {
+		final List<Album> albums = new ArrayList<>(ALBUMS);
+		for (int albumId = 1; albumId <= ALBUMS; albumId++) {
+			final Album album = new Album();
+			album.id = albumId;
+			album.title = "Album " + albumId;
+			albums.add(album);
+		}
+
+		final ExecutorService uploadThreads = Executors.newFixedThreadPool(THREADS);
+		final CyclicBarrier startLine = new CyclicBarrier(THREADS); // so that the first uploads to each album race to create its upload token
+		final List<Future<Map<File, Photo>>> threadResults = new ArrayList<>(THREADS);
+		try {
+			for (int threadId = 0; threadId < THREADS; threadId++) {
+				final int thread = threadId;
+				threadResults.add(uploadThreads.submit(() -> {
+					final Album album = albums.get(thread % ALBUMS);
+					final Map<File, Photo> uploadedPhotos = new LinkedHashMap<>();
+					startLine.await();
+					for (int upload = 0; upload < UPLOADS_PER_THREAD; upload++) {
+						if (upload % 2 == 0) {
+							final File photoFile = createPhoto(thread, upload, 0);
+							uploadedPhotos.put(photoFile, nixplayClient.uploadPhoto(photoFile, album));
+						} else {
+							final List<File> batch = new ArrayList<>(PHOTOS_PER_BATCH);
+							for (int photo = 0; photo < PHOTOS_PER_BATCH; photo++) {
+								batch.add(createPhoto(thread, upload, photo));
+							}
+							final List<Photo> batchPhotos = nixplayClient.uploadPhotos(batch, album);
+							assertEquals(batch.size(), batchPhotos.size());
+							for (int photo = 0; photo < batch.size(); photo++) {
+								uploadedPhotos.put(batch.get(photo), batchPhotos.get(photo));
+							}
+						}
+					}
+					return uploadedPhotos;
+				}));
+			}
+
+			final int expectedPhotoCount = THREADS * (UPLOADS_PER_THREAD / 2 + UPLOADS_PER_THREAD / 2 * PHOTOS_PER_BATCH);
+			final Set<Long> photoIds = new HashSet<>();
+			final Set<String> md5s = new HashSet<>();
+			for (int threadId = 0; threadId < THREADS; threadId++) {
+				final long albumId = albums.get(threadId % ALBUMS).id;
+				for (final Map.Entry<File, Photo> uploaded : threadResults.get(threadId).get().entrySet()) {
+					final Photo photo = uploaded.getValue();
+					assertNotNull(photo, "uploaded photo " + uploaded.getKey() + " was not found");
+					assertEquals(md5(Files.readAllBytes(uploaded.getKey().toPath())), photo.md5, "found the wrong photo for " + uploaded.getKey());
+					assertEquals(albumId, photo.albumId, "uploaded " + uploaded.getKey() + " to the wrong album");
+					assertTrue(photoIds.add(photo.id), "photo " + photo.id + " was returned for more than one upload");
+					md5s.add(photo.md5);
+				}
+			}
+
+			assertEquals(expectedPhotoCount, photoIds.size());
+			assertEquals(md5s, nixplay.s3UploadsByMd5.keySet(), "S3 received different photos than the ones that were uploaded");
+			nixplay.s3UploadsByMd5.forEach((md5, uploads) -> assertEquals(1, uploads.get(), "photo " + md5 + " was sent to S3 " + uploads + " times"));
+			assertEquals(0, nixplay.rejectedRequests.get(), "the stand-in rejected some requests, see the log");
+		} finally {
+			uploadThreads.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return a file with random contents, named the same in every thread
+	 */
+	private File createPhoto(final int thread, final int upload, final int photo) throws IOException {
+		final Path threadDirectory = Files.createDirectories(photoDirectory.resolve("thread-" + thread));
+		final byte[] content = new byte[2048 + ThreadLocalRandom.current().nextInt(64 * 1024)];
+		ThreadLocalRandom.current().nextBytes(content);
+		return Files.write(threadDirectory.resolve("photo-" + upload + "-" + photo + ".jpg"), content).toFile();
+	}
+
+	private static String md5(final byte[] content) throws NoSuchAlgorithmException {
+		return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content));
+	}
+
+	/**
+	 * Just enough of the Nixplay API ({@code /api/}), its upload monitor ({@code /upload-monitor/}), and S3 ({@code /s3/}) on one local port to upload
+	 * photos and find them again. Like Nixplay, a photo appears at the start of its album's listing once S3 has received it. Requests that Nixplay would
+	 * reject, like API calls without the session cookie, S3 uploads that aren't fixed-length, or upload IDs requested with another album's upload token,
+	 * are counted and answered with errors.
+	 */
+	private static final class NixplayStandIn implements AutoCloseable {
+
+		private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(NixplayStandIn.class);
+
+		private static final Pattern ALBUM_PICTURES_PATH = Pattern.compile("/api/album/(\\d+)/pictures/json/");
+		private static final Pattern MULTIPART_BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?");
+		private static final Pattern PART_NAME = Pattern.compile("name=\"([^\"]*)\"");
+
+		private final HttpServer server;
+		private final ExecutorService serverThreads = Executors.newVirtualThreadPerTaskExecutor();
+		private final ObjectMapper objectMapper = new ObjectMapper();
+		private final AtomicLong nextId = new AtomicLong(1000);
+		private final Map<String, Long> albumIdsByUploadToken = new ConcurrentHashMap<>();
+		private final Map<String, PendingUpload> pendingUploadsByKey = new ConcurrentHashMap<>();
+		private final Set<String> processedUploadKeys = ConcurrentHashMap.newKeySet();
+		private final Map<Long, List<Photo>> photosByAlbum = new ConcurrentHashMap<>(); // newest first, each list guarded by itself
+		final Map<String, AtomicInteger> s3UploadsByMd5 = new ConcurrentHashMap<>();
+		final AtomicInteger rejectedRequests = new AtomicInteger();
+
+		NixplayStandIn() throws IOException {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+			server.setExecutor(serverThreads);
+			server.createContext("/api/", exchange -> handle(exchange, this::handleApi));
+			server.createContext("/upload-monitor/", exchange -> handle(exchange, this::handleUploadMonitor));
+			server.createContext("/s3/", exchange -> handle(exchange, this::handleS3));
+			server.start();
+		}
+
+		URI getBaseUri() {
+			return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+		}
+
+		private void handleApi(final HttpExchange exchange) throws IOException {
+			final List<String> cookies = exchange.getRequestHeaders().getOrDefault("Cookie", List.of());
+			if (cookies.stream().noneMatch(cookie -> cookie.contains(SESSION_ID))) {
+				reject(exchange, 403, "missing session cookie in " + cookies);
+				return;
+			}
+
+			final String path = exchange.getRequestURI().getPath();
+			final Matcher albumPicturesPath = ALBUM_PICTURES_PATH.matcher(path);
+			if ("/api/v3/upload/receivers".equals(path)) {
+				final Map<String, String> form = readForm(exchange);
+				final String uploadToken = "token-" + nextId.incrementAndGet();
+				albumIdsByUploadToken.put(uploadToken, Long.parseLong(form.get("albumId")));
+				respond(exchange, 200, objectMapper.createObjectNode().put("token", uploadToken));
+
+			} else if ("/api/v3/photo/upload/".equals(path)) {
+				final Map<String, String> form = readForm(exchange);
+				final long albumId = Long.parseLong(form.get("albumId"));
+				final Long tokenAlbumId = albumIdsByUploadToken.get(form.get("uploadToken"));
+				if (tokenAlbumId == null || tokenAlbumId != albumId) {
+					reject(exchange, 400, "upload token " + form.get("uploadToken") + " is for album " + tokenAlbumId + ", not " + albumId);
+					return;
+				}
+
+				final String key = "upload-" + nextId.incrementAndGet();
+				pendingUploadsByKey.put(key, new PendingUpload(albumId, form.get("fileName")));
+				final ObjectNode response = objectMapper.createObjectNode();
+				response.putObject("data")
+				    .put("key", key)
+				    .put("acl", "private")
+				    .put("fileType", form.get("fileType"))
+				    .put("batchUploadId", "batch-" + form.get("uploadToken"))
+				    .put("AWSAccessKeyId", "stand-in")
+				    .put("Policy", "stand-in")
+				    .put("Signature", "stand-in")
+				    .put("s3UploadUrl", getBaseUri().resolve("s3/").toString())
+				    .putArray("userUploadIds").add(key);
+				respond(exchange, 200, response);
+
+			} else if (albumPicturesPath.matches()) {
+				final Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+				final int page = Integer.parseInt(query.get("page"));
+				final int limit = Integer.parseInt(query.get("limit"));
+				final List<Photo> albumPhotos = photosByAlbum.computeIfAbsent(Long.parseLong(albumPicturesPath.group(1)), albumId -> new ArrayList<>());
+				final List<Photo> pagePhotos;
+				synchronized (albumPhotos) {
+					final int start = Math.min((page - 1) * limit, albumPhotos.size());
+					pagePhotos = new ArrayList<>(albumPhotos.subList(start, Math.min(start + limit, albumPhotos.size())));
+				}
+				final ObjectNode response = objectMapper.createObjectNode();
+				response.set("photos", objectMapper.valueToTree(pagePhotos));
+				respond(exchange, 200, response);
+
+			} else {
+				reject(exchange, 404, "unexpected request " + exchange.getRequestMethod() + " " + path);
+			}
+		}
+
+		/**
+		 * Nixplay's monitor blocks until the photo has been processed, but the stand-in processes photos as soon as S3 receives them, so it only has to
+		 * check that the client waited for the S3 upload to finish.
+		 */
+		private void handleUploadMonitor(final HttpExchange exchange) throws IOException {
+			final String key = parseForm(exchange.getRequestURI().getRawQuery()).get("id");
+			if (!processedUploadKeys.contains(key)) {
+				reject(exchange, 409, "upload monitor asked about " + key + " before it was sent to S3");
+				return;
+			}
+			respond(exchange, 200, objectMapper.createObjectNode().put("status", "done"));
+		}
+
+		private void handleS3(final HttpExchange exchange) throws IOException {
+			final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+			if (contentLength == null || exchange.getRequestHeaders().containsKey("Transfer-Encoding")) {
+				reject(exchange, 411, "S3 upload was not sent with a fixed length");
+				return;
+			}
+
+			final Matcher boundaryMatcher = MULTIPART_BOUNDARY.matcher(exchange.getRequestHeaders().getFirst("Content-Type"));
+			if (!boundaryMatcher.find()) {
+				reject(exchange, 400, "S3 upload is not multipart");
+				return;
+			}
+			final byte[] body = exchange.getRequestBody().readAllBytes();
+			if (body.length != Long.parseLong(contentLength)) {
+				reject(exchange, 400, "S3 upload was " + body.length + " bytes, but its Content-Length was " + contentLength);
+				return;
+			}
+
+			final Map<String, byte[]> parts = parseMultipart(body, boundaryMatcher.group(1));
+			final String key = new String(parts.get("key"), StandardCharsets.UTF_8);
+			final PendingUpload pendingUpload = pendingUploadsByKey.remove(key);
+			if (pendingUpload == null) {
+				reject(exchange, 400, "S3 upload has unknown or reused key " + key);
+				return;
+			}
+
+			final Photo photo = new Photo();
+			photo.id = nextId.incrementAndGet();
+			photo.albumId = pendingUpload.albumId;
+			photo.filename = pendingUpload.filename;
+			try {
+				photo.md5 = md5(parts.get("file"));
+			} catch (final NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+			s3UploadsByMd5.computeIfAbsent(photo.md5, md5 -> new AtomicInteger()).incrementAndGet();
+
+			final List<Photo> albumPhotos = photosByAlbum.computeIfAbsent(pendingUpload.albumId, albumId -> new ArrayList<>());
+			synchronized (albumPhotos) {
+				albumPhotos.add(0, photo);
+			}
+			processedUploadKeys.add(key);
+
+			exchange.sendResponseHeaders(201, -1);
+		}
+
+		private static Map<String, byte[]> parseMultipart(final byte[] body, final String boundary) {
+			// ISO-8859-1 maps every byte to one char, so the file part survives the round trip unchanged
+			final String bodyChars = new String(body, StandardCharsets.ISO_8859_1);
+			final String delimiter = "--" + boundary;
+			final Map<String, byte[]> parts = new HashMap<>();
+			int partStart = bodyChars.indexOf(delimiter);
+			while (partStart >= 0 && !bodyChars.startsWith(delimiter + "--", partStart)) {
+				final int headersStart = partStart + delimiter.length() + 2;
+				final int contentStart = bodyChars.indexOf("\r\n\r\n", headersStart) + 4;
+				final int nextPartStart = bodyChars.indexOf("\r\n" + delimiter, contentStart);
+				final Matcher nameMatcher = PART_NAME.matcher(bodyChars.substring(headersStart, contentStart));
+				if (nameMatcher.find()) {
+					parts.put(nameMatcher.group(1), bodyChars.substring(contentStart, nextPartStart).getBytes(StandardCharsets.ISO_8859_1));
+				}
+				partStart = nextPartStart + 2;
+			}
+			return parts;
+		}
+
+		private static Map<String, String> readForm(final HttpExchange exchange) throws IOException {
+			return parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+		}
+
+		private static Map<String, String> parseForm(final String encodedForm) {
+			final Map<String, String> form = new HashMap<>();
+			if (encodedForm != null) {
+				for (final String field : encodedForm.split("&")) {
+					final String[] nameAndValue = field.split("=", 2);
+					form.put(URLDecoder.decode(nameAndValue[0], StandardCharsets.UTF_8),
+					    nameAndValue.length > 1 ? URLDecoder.decode(nameAndValue[1], StandardCharsets.UTF_8) : "");
+				}
+			}
+			return form;
+		}
+
+		private void respond(final HttpExchange exchange, final int status, final ObjectNode body) throws IOException {
+			final byte[] bodyBytes = objectMapper.writeValueAsBytes(body);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(status, bodyBytes.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(bodyBytes);
+			}
+		}
+
+		private void reject(final HttpExchange exchange, final int status, final String reason) throws IOException {
+			LOGGER.error("Rejected request: {}", reason);
+			rejectedRequests.incrementAndGet();
+			respond(exchange, status, objectMapper.createObjectNode().put("error", reason));
+		}
+
+		private static void handle(final HttpExchange exchange, final Handler handler) throws IOException {
+			try (exchange) {
+				handler.handle(exchange);
+			} catch (final IOException | RuntimeException e) {
+				LOGGER.error("Stand-in failed to handle {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() {
+			server.stop(0);
+			serverThreads.shutdownNow();
+		}
+
+		@FunctionalInterface
+		private interface Handler {
+			void handle(HttpExchange exchange) throws IOException;
+		}
+
+		private static final class PendingUpload {
+
+			final long albumId;
+			final String filename;
+
+			PendingUpload(final long albumId, final String filename) {
+				this.albumId = albumId;
+				this.filename = filename;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,306 @@
+package com.aldaviva.microblog_favorites.services.nixplay;
+
+import com.aldaviva.microblog_favorites.services.nixplay.data.Album;
+import com.aldaviva.microblog_favorites.services.nixplay.data.FrameStatus;
+import com.aldaviva.microblog_favorites.services.nixplay.data.Photo;
+import com.aldaviva.microblog_favorites.services.nixplay.data.Playlist;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.PasswordAuthentication;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs {@link NixplayUploader} against an in-memory stand-in for Nixplay, which fails the test if an album would hold more than
+ * {@link NixplayUploader#MAX_PHOTOS_PER_PLAYLIST} photos. Checks that album photo counts are still right in the next run when a run crashes, and that
+ * reconciling uploads each missing screenshot once, even though albums don't line up with the subdirectories that screenshots are saved in.
+ */
+class NixplayUploaderTest {
+
+	private static final String PREFIX = "Test ";
+	private static final int MAX_PHOTOS = NixplayUploader.MAX_PHOTOS_PER_PLAYLIST;
+
+	@TempDir
+	Path directory;
+
+	private NixplayStandIn nixplay;
+	private Path metadataCacheFile;
+
+	@BeforeEach
+	void setUp() {
+		nixplay = new NixplayStandIn();
+		metadataCacheFile = directory.resolve("nixplay.json");
+	}
+
+	/**
+	 * A run that crashes never closes the uploader, but the next run, which trusts the cached albums instead of listing them again, must still know how
+	 * many photos the crashed run put in them.
+	 */
+	@Test
+	void photoCountsAreSavedBeforeClosing() throws IOException {
+		final NixplayUploader crashedRun = signIn();
+		crashedRun.uploadToAlbumAndPlaylist(createPhotos("first", 5), PREFIX); // creating the album and playlist saves the cache too
+		crashedRun.uploadToAlbumAndPlaylist(createPhotos("second", 4), PREFIX);
+		assertEquals(9, readCachedPhotoCount(PREFIX + 1));
+
+		final NixplayUploader nextRun = signIn();
+		nextRun.uploadToAlbumAndPlaylist(createPhotos("next", MAX_PHOTOS - 9 + 3), PREFIX);
+		assertEquals(1, nixplay.albumListings, "the second run used the cached albums");
+		assertEquals(MAX_PHOTOS, nixplay.getPhotos(PREFIX + 1).size());
+		assertEquals(3, nixplay.getPhotos(PREFIX + 2).size());
+		assertEquals(MAX_PHOTOS, readCachedPhotoCount(PREFIX + 1));
+		assertEquals(3, readCachedPhotoCount(PREFIX + 2));
+	}
+
+	/**
+	 * New uploads go to the newest album with room, so albums drift away from the subdirectories that screenshots are saved in: here album 1 is full
+	 * with 1995 screenshots from subdirectory 1 and 5 from subdirectory 2. Reconciling must find the 5 from subdirectory 1 that are missing even though
+	 * album 1 has no room, and must not upload the 5 from subdirectory 2 again just because they aren't in album 2.
+	 */
+	@Test
+	void reconcileAlbumsThatDriftedFromSubdirectories() throws IOException {
+		final List<File> subdirectory1 = createPhotos("1", MAX_PHOTOS);
+		final List<File> subdirectory2 = createPhotos("2", 10);
+		final Album album1 = nixplay.createAlbum(PREFIX + 1);
+		nixplay.uploadPhotos(subdirectory1.subList(0, MAX_PHOTOS - 5), album1);
+		nixplay.uploadPhotos(subdirectory2.subList(0, 5), album1);
+		final Album album2 = nixplay.createAlbum(PREFIX + 2);
+		nixplay.uploadPhotos(subdirectory2.subList(5, 7), album2);
+		final Path renamedPhoto = Files.copy(subdirectory2.get(7).toPath(), directory.resolve("renamed by Nixplay.jpg"));
+		nixplay.uploadPhotos(List.of(renamedPhoto.toFile()), album2);
+
+		final List<File> savedScreenshots = new ArrayList<>(subdirectory1);
+		savedScreenshots.addAll(subdirectory2);
+		final NixplayUploader uploader = signIn();
+		assertEquals(7, uploader.reconcileAlbums(savedScreenshots, PREFIX));
+
+		assertEquals(MAX_PHOTOS, nixplay.getPhotos(PREFIX + 1).size());
+		assertEquals(10, nixplay.getPhotos(PREFIX + 2).size());
+		final Map<String, Integer> uploadsByMd5 = new HashMap<>();
+		for (final String albumTitle : List.of(PREFIX + 1, PREFIX + 2)) {
+			for (final Photo photo : nixplay.getPhotos(albumTitle)) {
+				uploadsByMd5.merge(photo.md5, 1, Integer::sum);
+			}
+		}
+		for (final File screenshot : savedScreenshots) {
+			assertEquals(1, (int) uploadsByMd5.getOrDefault(NixplayStandIn.md5(screenshot), 0), screenshot.getName());
+		}
+		assertEquals(savedScreenshots.size(), uploadsByMd5.size());
+		assertEquals(10, readCachedPhotoCount(PREFIX + 2));
+
+		assertEquals(0, uploader.reconcileAlbums(savedScreenshots, PREFIX));
+	}
+
+	private NixplayUploader signIn() {
+		final NixplayUploader uploader = new NixplayUploader(nixplay, metadataCacheFile);
+		uploader.signIn(new PasswordAuthentication("user", "password".toCharArray()));
+		return uploader;
+	}
+
+	private List<File> createPhotos(final String name, final int count) throws IOException {
+		final List<File> photos = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final Path photo = directory.resolve(name + "-" + i + ".jpg");
+			Files.writeString(photo, name + " " + i); // different bytes, so different MD5 hashes
+			photos.add(photo.toFile());
+		}
+		return photos;
+	}
+
+	private int readCachedPhotoCount(final String albumTitle) throws IOException {
+		for (final JsonNode album : new ObjectMapper().readTree(metadataCacheFile.toFile()).path("albums")) {
+			if (albumTitle.equals(album.path("title").textValue())) {
+				return album.path("photo_count").intValue();
+			}
+		}
+		throw new AssertionError("No cached album " + albumTitle);
+	}
+
+	/**
+	 * Albums, playlists, and photos kept in memory. Like Nixplay, each listing returns new objects, and photos are listed newest first.
+	 */
+	private static final class NixplayStandIn implements NixplayClient {
+
+		private final Map<Long, String> albumTitles = new LinkedHashMap<>();
+		private final Map<Long, List<Photo>> albumPhotos = new LinkedHashMap<>();
+		private final Map<Long, String> playlistNames = new LinkedHashMap<>();
+		private final Map<Long, List<Photo>> playlistPhotos = new LinkedHashMap<>();
+		private long nextId = 1;
+		int albumListings = 0;
+
+		synchronized List<Photo> getPhotos(final String albumTitle) {
+			for (final Map.Entry<Long, String> album : albumTitles.entrySet()) {
+				if (album.getValue().equals(albumTitle)) {
+					return albumPhotos.get(album.getKey());
+				}
+			}
+			throw new AssertionError("No album " + albumTitle);
+		}
+
+		@Override
+		public String signIn(final PasswordAuthentication credentials) {
+			return "session";
+		}
+
+		@Override
+		public String signIn(final String sessionId) {
+			return sessionId;
+		}
+
+		@Override
+		public void signOut() {
+		}
+
+		@Override
+		public synchronized List<Album> listAlbums() {
+			albumListings++;
+			final List<Album> albums = new ArrayList<>();
+			for (final long albumId : albumTitles.keySet()) {
+				albums.add(toAlbum(albumId));
+			}
+			return albums;
+		}
+
+		@Override
+		public synchronized List<Playlist> listPlaylists() {
+			final List<Playlist> playlists = new ArrayList<>();
+			for (final long playlistId : playlistNames.keySet()) {
+				playlists.add(toPlaylist(playlistId));
+			}
+			return playlists;
+		}
+
+		@Override
+		public synchronized Playlist createPlaylist(final String name) {
+			final long playlistId = nextId++;
+			playlistNames.put(playlistId, name);
+			playlistPhotos.put(playlistId, new ArrayList<>());
+			return toPlaylist(playlistId);
+		}
+
+		@Override
+		public synchronized Album createAlbum(final String name) {
+			final long albumId = nextId++;
+			albumTitles.put(albumId, name);
+			albumPhotos.put(albumId, new ArrayList<>());
+			return toAlbum(albumId);
+		}
+
+		@Override
+		public void enablePlaylistOnFrame(final Playlist playlist, final FrameStatus frame) {
+		}
+
+		@Override
+		public FrameStatus.Envelope listFrameStatuses() {
+			final FrameStatus.Envelope frames = new FrameStatus.Envelope();
+			frames.frames = new ArrayList<>();
+			return frames;
+		}
+
+		@Override
+		public Photo uploadPhoto(final File photoFile, final Album destinationAlbum) {
+			return uploadPhotos(List.of(photoFile), destinationAlbum).get(0);
+		}
+
+		@Override
+		public Photo uploadPhoto(final InputStream photoStream, final String filename, final long length, final Album destinationAlbum) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public synchronized List<Photo> uploadPhotos(final List<File> photoFiles, final Album destinationAlbum) {
+			final List<Photo> photos = albumPhotos.get(destinationAlbum.id);
+			if (photos.size() + photoFiles.size() > MAX_PHOTOS) {
+				throw new AssertionError("Uploading " + photoFiles.size() + " photos to " + destinationAlbum.title + ", which already has " + photos.size());
+			}
+			final List<Photo> uploaded = new ArrayList<>(photoFiles.size());
+			for (final File photoFile : photoFiles) {
+				final Photo photo = new Photo();
+				photo.id = nextId++;
+				photo.albumId = destinationAlbum.id;
+				photo.filename = photoFile.getName();
+				photo.md5 = md5(photoFile);
+				photos.add(photo);
+				uploaded.add(photo);
+			}
+			return uploaded;
+		}
+
+		@Override
+		public CompletableFuture<Photo> uploadPhotoAsync(final File photoFile, final Album destinationAlbum) {
+			return CompletableFuture.completedFuture(uploadPhoto(photoFile, destinationAlbum));
+		}
+
+		@Override
+		public CompletableFuture<List<Photo>> uploadPhotosAsync(final List<File> photoFiles, final Album destinationAlbum) {
+			return CompletableFuture.completedFuture(uploadPhotos(photoFiles, destinationAlbum));
+		}
+
+		@Override
+		public synchronized List<Photo> getPhotosFromAlbum(final Album album, final int page, final int limit) {
+			final List<Photo> newestFirst = new ArrayList<>(albumPhotos.get(album.id)).reversed();
+			return new ArrayList<>(newestFirst.subList(Math.min(newestFirst.size(), (page - 1) * limit), Math.min(newestFirst.size(), page * limit)));
+		}
+
+		@Override
+		public synchronized void appendPhotosToPlaylist(final Playlist playlist, final Photo... photos) {
+			playlistPhotos.get(playlist.id).addAll(List.of(photos));
+		}
+
+		@Override
+		public CompletableFuture<Void> appendPhotosToPlaylistAsync(final Playlist playlist, final Photo... photos) {
+			appendPhotosToPlaylist(playlist, photos);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public void close() {
+		}
+
+		private Album toAlbum(final long albumId) {
+			final Album album = new Album();
+			album.id = albumId;
+			album.title = albumTitles.get(albumId);
+			album.photoCount = albumPhotos.get(albumId).size();
+			return album;
+		}
+
+		private Playlist toPlaylist(final long playlistId) {
+			final Playlist playlist = new Playlist();
+			playlist.id = playlistId;
+			playlist.name = playlistNames.get(playlistId);
+			playlist.pictureCount = playlistPhotos.get(playlistId).size();
+			return playlist;
+		}
+
+		private static String md5(final File file) {
+			try {
+				return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(Files.readAllBytes(file.toPath())));
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (final NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+}
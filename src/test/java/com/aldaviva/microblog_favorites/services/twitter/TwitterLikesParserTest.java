@@ -0,0 +1,272 @@
+package com.aldaviva.microblog_favorites.services.twitter;
+
+import com.aldaviva.microblog_favorites.http.JacksonConfig.CustomObjectMapperProvider;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.ws.rs.core.UriBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the streaming {@link TwitterLikesParser} reads the same favorites and cursor out of a Likes page as the tree-based parser it replaced,
+ * which is kept here as {@link #parseLikesPageTree}, for the benchmark fixture as captured and with every object's keys in reverse order, and for
+ * tweets that are wrapped in {@code TweetWithVisibilityResults} or are missing their author or text. Also checks that the positional date parser
+ * gives the same result as {@link TwitterLikesParser#DATE_FORMAT}, including for dates that the formatter rejects.
+ */
+class TwitterLikesParserTest {
+
+	private static final Path FIXTURE = Path.of("src/jmh/resources/fixtures/twitter-likes.json");
+	private static final String FIXTURE_BOTTOM_CURSOR = "HCaAgICUp5Dn7zMAAA==";
+
+	@Test
+	void fixture() throws IOException {
+		final byte[] likesResponse = Files.readAllBytes(FIXTURE);
+		final List<FavoriteTweet> favorites = new ArrayList<>();
+		assertEquals(FIXTURE_BOTTOM_CURSOR, TwitterLikesParser.parseLikesPage(new ByteArrayInputStream(likesResponse), favorites));
+		assertEquals(88, favorites.size());
+
+		final FavoriteTweet first = favorites.get(0);
+		assertEquals("1879912932077538689", first.getId());
+		assertEquals("retro92679", first.getAuthorHandle());
+		assertEquals("Jamie Tanaka", first.getAuthorName());
+		assertFalse(first.isProtected());
+		assertEquals(Instant.parse("2023-05-20T05:01:47Z"), first.getDate());
+		assertEquals("😞👍🏽💓 résumé we and!", first.getBody());
+		assertEquals("https://x.com/retro92679/status/1879912932077538689", first.getUrl().toString());
+		assertEquals("https://platform.twitter.com/embed/Tweet.html?dnt=false&embedId=twitter-widget-0&frame=false&hideCard=false&hideThread=false"
+		    + "&id=1879912932077538689&lang=en&theme=dark", first.getEmbeddedUrl().toString());
+		assertTrue(favorites.get(1).isProtected());
+
+		final List<FavoriteTweet> expected = new ArrayList<>();
+		assertEquals(FIXTURE_BOTTOM_CURSOR, parseLikesPageTree(CustomObjectMapperProvider.OBJECT_MAPPER.readTree(likesResponse), expected));
+		assertEquals(expected, favorites);
+	}
+
+	@Test
+	void reversedKeyOrder() throws IOException {
+		final byte[] likesResponse = Files.readAllBytes(FIXTURE);
+		final JsonNode reversed = reverseKeys(CustomObjectMapperProvider.OBJECT_MAPPER.readTree(likesResponse));
+		assertEquals("timeline_v2", reversed.path("data").path("user").path("result").fieldNames().next(), "keys are reversed");
+
+		final List<FavoriteTweet> expected = new ArrayList<>();
+		TwitterLikesParser.parseLikesPage(new ByteArrayInputStream(likesResponse), expected);
+		final List<FavoriteTweet> favorites = new ArrayList<>();
+		assertEquals(FIXTURE_BOTTOM_CURSOR, TwitterLikesParser.parseLikesPage(
+		    new ByteArrayInputStream(CustomObjectMapperProvider.OBJECT_MAPPER.writeValueAsBytes(reversed)), favorites));
+		assertEquals(expected, favorites);
+	}
+
+	/**
+	 * The wrapper's own fields must not leak into the tweet, whether they come before or after {@code __typename}, and a {@code tweet} field is only
+	 * unwrapped when the type says so.
+	 */
+	@Test
+	void tweetWithVisibilityResults() throws IOException {
+		final String wrappedTweet = tweet("111", "alice", "Alice", "Thu Jan 16 19:15:41 +0000 2025", "wrapped");
+		final List<FavoriteTweet> favorites = assertSameAsTreeParser(likesPage(
+		    "{\"__typename\": \"TweetWithVisibilityResults\", \"tweet\": " + wrappedTweet + ", \"limitedActionResults\": {\"limited_actions\": []}}",
+		    "{\"tweet\": " + wrappedTweet + ", \"rest_id\": \"222\", \"__typename\": \"TweetWithVisibilityResults\"}",
+		    "{\"__typename\": \"Tweet\", \"tweet\": " + tweet("333", "bob", "Bob", "Thu Jan 16 19:15:41 +0000 2025", "nested") + ", \"rest_id\": \"444\", "
+		        + "\"core\": {\"user_results\": {\"result\": {\"legacy\": {\"screen_name\": \"carol\", \"name\": \"Carol\"}}}}, "
+		        + "\"legacy\": {\"created_at\": \"Fri Jan 17 08:00:00 -0800 2025\", \"full_text\": \"outer\"}}"));
+
+		assertEquals(3, favorites.size());
+		for (final FavoriteTweet favorite : favorites.subList(0, 2)) {
+			assertEquals("111", favorite.getId());
+			assertEquals("alice", favorite.getAuthorHandle());
+			assertEquals("wrapped", favorite.getBody());
+		}
+		assertEquals("444", favorites.get(2).getId());
+		assertEquals("carol", favorites.get(2).getAuthorHandle());
+		assertEquals(Instant.parse("2025-01-17T16:00:00Z"), favorites.get(2).getDate());
+		assertEquals("outer", favorites.get(2).getBody());
+	}
+
+	/**
+	 * Missing optional fields get the same defaults as before. Without an author there's no URL, and without the tweet's {@code legacy} there's no
+	 * date, so like the tree parser, the page fails instead of saving a tweet that can't be screenshotted or tagged.
+	 */
+	@Test
+	void missingCoreOrLegacy() throws IOException {
+		final List<FavoriteTweet> favorites = assertSameAsTreeParser(likesPage(
+		    "{\"__typename\": \"Tweet\", \"rest_id\": \"555\", \"core\": {\"user_results\": {\"result\": {\"legacy\": {\"screen_name\": \"dave\"}}}}, "
+		        + "\"legacy\": {\"created_at\": \"Thu Jan 16 19:15:41 +0000 2025\"}}"));
+		assertEquals(1, favorites.size());
+		assertEquals("555", favorites.get(0).getId());
+		assertNull(favorites.get(0).getAuthorName());
+		assertFalse(favorites.get(0).isProtected());
+		assertEquals("", favorites.get(0).getBody());
+
+		assertThrows(IllegalArgumentException.class, () -> assertSameAsTreeParser(likesPage(
+		    "{\"__typename\": \"Tweet\", \"rest_id\": \"666\", \"legacy\": {\"created_at\": \"Thu Jan 16 19:15:41 +0000 2025\", \"full_text\": \"no core\"}}")));
+		assertThrows(IllegalArgumentException.class, () -> assertSameAsTreeParser(likesPage(
+		    "{\"__typename\": \"Tweet\", \"rest_id\": \"777\", \"core\": {\"user_results\": {\"result\": {\"__typename\": \"User\"}}}, "
+		        + "\"legacy\": {\"created_at\": \"Thu Jan 16 19:15:41 +0000 2025\", \"full_text\": \"no author legacy\"}}")));
+		assertThrows(NullPointerException.class, () -> assertSameAsTreeParser(likesPage(
+		    "{\"__typename\": \"Tweet\", \"rest_id\": \"888\", \"core\": {\"user_results\": {\"result\": {\"legacy\": {\"screen_name\": \"erin\"}}}}}")));
+	}
+
+	@Test
+	void parseDateMatchesDateFormat() {
+		final Random random = new Random(16);
+		for (int i = 0; i < 200_000; i++) {
+			final ZoneOffset offset = ZoneOffset.ofTotalSeconds(random.nextInt(-18 * 4, 18 * 4 + 1) * 15 * 60); // every quarter hour, including negative
+			final String date = TwitterLikesParser.DATE_FORMAT.format(Instant.ofEpochSecond(random.nextLong(0, 4_000_000_000L)).atOffset(offset));
+			assertEquals(OffsetDateTime.parse(date, TwitterLikesParser.DATE_FORMAT).toInstant(), TwitterLikesParser.parseDate(date), date);
+		}
+
+		assertEquals(Instant.parse("2025-01-17T03:45:41Z"), TwitterLikesParser.parseDate("Thu Jan 16 19:15:41 -0830 2025"));
+		assertEquals(Instant.parse("2025-01-16T19:15:41Z"), TwitterLikesParser.parseDate("Thu Jan 16 19:15:41 -0000 2025"));
+		assertEquals(Instant.parse("2024-02-29T23:59:59Z"), TwitterLikesParser.parseDate("Thu Feb 29 23:59:59 +0000 2024"));
+	}
+
+	/**
+	 * Dates that aren't laid out exactly like Twitter's, or that aren't valid, must be resolved or rejected the same way as by the formatter.
+	 */
+	@Test
+	void parseDateFallsBackToDateFormat() {
+		final String[] dates = { "Thu Jan 16 19:15:41 +0000 2025", "Fri Jan 16 19:15:41 +0000 2025", "Xyz Jan 16 19:15:41 +0000 2025",
+		    "Fri Feb 28 19:15:41 +0000 2025", "Fri Feb 30 19:15:41 +0000 2025", "Thu Feb 29 19:15:41 +0000 2025", "Thu Jan 32 19:15:41 +0000 2025",
+		    "Thu Jan 00 19:15:41 +0000 2025", "Thu Jan 16 24:00:00 +0000 2025", "Thu Jan 16 19:60:41 +0000 2025", "Thu Jan 16 19:15:60 +0000 2025",
+		    "Thu Jan 16 19:15:41 +1800 2025", "Thu Jan 16 19:15:41 -1800 2025", "Thu Jan 16 19:15:41 +1801 2025", "Thu Jan 16 19:15:41 -1859 2025",
+		    "Thu Jan 16 19:15:41 +0060 2025", "Thu Jan 16 19:15:41 +00:00 2025", "Thu Jan 16 19:15:41 Z 2025", "Thu Jan 16 19:15:41 +0000 0000",
+		    "Thu Jan 16 19:15:41 +0000 025", "Thu Jan 16 19:15:41 +0000 20255", "Thu Jan 16 19:15:41 +0000 2025 ", "Thu jan 16 19:15:41 +0000 2025",
+		    "Thu Foo 16 19:15:41 +0000 2025", "Thu Jan 1६ 19:15:41 +0000 2025", "Thu Jan 16 19:15:41 +000a 2025", "Thu Jan 16 19:15:41 ±0000 2025", "" };
+		for (final String date : dates) {
+			final Instant expected;
+			try {
+				expected = OffsetDateTime.parse(date, TwitterLikesParser.DATE_FORMAT).toInstant();
+			} catch (final DateTimeParseException e) {
+				assertThrows(DateTimeParseException.class, () -> TwitterLikesParser.parseDate(date), date);
+				continue;
+			}
+			assertEquals(expected, TwitterLikesParser.parseDate(date), date);
+		}
+
+		assertThrows(DateTimeException.class, () -> TwitterLikesParser.parseDate("Fri Jan 16 19:15:41 +0000 2025"), "wrong day of the week");
+		assertEquals(Instant.parse("2025-02-28T19:15:41Z"), TwitterLikesParser.parseDate("Fri Feb 30 19:15:41 +0000 2025"), "resolved like the formatter");
+	}
+
+	/**
+	 * Parse the page with both parsers, and check that they produce the same favorites and cursor, or fail with the same exception.
+	 * @return the favorites
+	 */
+	private static List<FavoriteTweet> assertSameAsTreeParser(final String likesResponse) throws IOException {
+		final List<FavoriteTweet> expected = new ArrayList<>();
+		final String expectedCursor;
+		try {
+			expectedCursor = parseLikesPageTree(CustomObjectMapperProvider.OBJECT_MAPPER.readTree(likesResponse), expected);
+		} catch (final RuntimeException e) {
+			final RuntimeException actual = assertThrows(RuntimeException.class,
+			    () -> TwitterLikesParser.parseLikesPage(new ByteArrayInputStream(likesResponse.getBytes(StandardCharsets.UTF_8)), new ArrayList<>()));
+			assertEquals(e.getClass(), actual.getClass(), actual.toString());
+			throw actual;
+		}
+
+		final List<FavoriteTweet> favorites = new ArrayList<>();
+		assertEquals(expectedCursor, TwitterLikesParser.parseLikesPage(new ByteArrayInputStream(likesResponse.getBytes(StandardCharsets.UTF_8)), favorites));
+		assertEquals(expected, favorites);
+		return favorites;
+	}
+
+	/**
+	 * @param tweetResults value of each entry's {@code tweet_results.result}
+	 * @return a Likes response with an entry for each tweet, between a Top and Bottom cursor
+	 */
+	private static String likesPage(final String... tweetResults) {
+		final StringBuilder entries = new StringBuilder("{\"entryId\": \"cursor-top\", \"content\": {\"entryType\": \"TimelineTimelineCursor\", \"value\": \"top\", "
+		    + "\"cursorType\": \"Top\"}}");
+		for (final String tweetResult : tweetResults) {
+			entries.append(", {\"entryId\": \"tweet\", \"content\": {\"entryType\": \"TimelineTimelineItem\", \"itemContent\": {\"itemType\": \"TimelineTweet\", ")
+			    .append("\"tweet_results\": {\"result\": ").append(tweetResult).append("}}}}");
+		}
+		entries.append(", {\"entryId\": \"cursor-bottom\", \"content\": {\"entryType\": \"TimelineTimelineCursor\", \"value\": \"bottom\", \"cursorType\": \"Bottom\"}}");
+		return "{\"data\": {\"user\": {\"result\": {\"timeline_v2\": {\"timeline\": {\"instructions\": [{\"type\": \"TimelineAddEntries\", \"entries\": ["
+		    + entries + "]}]}}}}}}";
+	}
+
+	private static String tweet(final String id, final String authorHandle, final String authorName, final String createdAt, final String fullText) {
+		return "{\"__typename\": \"Tweet\", \"rest_id\": \"" + id + "\", \"core\": {\"user_results\": {\"result\": {\"legacy\": {\"screen_name\": \"" + authorHandle
+		    + "\", \"name\": \"" + authorName + "\"}}}}, \"legacy\": {\"created_at\": \"" + createdAt + "\", \"full_text\": \"" + fullText + "\"}}";
+	}
+
+	private static JsonNode reverseKeys(final JsonNode node) {
+		if (node.isObject()) {
+			final List<Map.Entry<String, JsonNode>> fields = new ArrayList<>();
+			node.fields().forEachRemaining(fields::add);
+			final ObjectNode reversed = CustomObjectMapperProvider.OBJECT_MAPPER.createObjectNode();
+			for (int i = fields.size() - 1; i >= 0; i--) {
+				reversed.set(fields.get(i).getKey(), reverseKeys(fields.get(i).getValue()));
+			}
+			return reversed;
+		} else if (node.isArray()) {
+			for (int i = 0; i < node.size(); i++) {
+				((ArrayNode) node).set(i, reverseKeys(node.get(i)));
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * The tree-based parser that {@link TwitterLikesParser} replaced, unchanged except for taking a tree instead of reading one.
+	 */
+	private static String parseLikesPageTree(final JsonNode graphResponse, final List<FavoriteTweet> favorites) {
+		final UriBuilder postPageUri = UriBuilder.fromUri("https://x.com/{author}/status/{tweetid}");
+		final UriBuilder postEmbeddedPageUri = UriBuilder
+		    .fromUri("https://platform.twitter.com/embed/Tweet.html?dnt=false&embedId=twitter-widget-0&frame=false&hideCard=false&hideThread=false&id={tweetid}&lang=en&theme=dark");
+		final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss xx yyyy");
+
+		String nextPageCursor = null;
+		final JsonNode entries = graphResponse.path("data").path("user").path("result").path("timeline_v2").path("timeline").path("instructions").path(0).path("entries");
+		for (final JsonNode entry : entries) {
+			final String entryType = entry.path("content").path("entryType").textValue();
+			if ("TimelineTimelineItem".equals(entryType)) {
+				final FavoriteTweet favorite = new FavoriteTweet();
+				favorites.add(favorite);
+
+				JsonNode graphTweet = entry.path("content").path("itemContent").path("tweet_results").path("result");
+				if (graphTweet.path("__typename").textValue().equals("TweetWithVisibilityResults")) {
+					graphTweet = graphTweet.path("tweet");
+				}
+
+				final JsonNode author = graphTweet.path("core").path("user_results").path("result").path("legacy");
+
+				favorite.setId(graphTweet.path("rest_id").textValue());
+				favorite.setAuthorHandle(author.path("screen_name").textValue());
+				favorite.setAuthorName(author.path("name").textValue());
+				favorite.setProtected(author.path("protected").asBoolean(false) || author.path("possibly_sensitive").asBoolean());
+				favorite.setDate(OffsetDateTime.parse(graphTweet.path("legacy").path("created_at").textValue(), dateFormat).toInstant());
+				favorite.setBody(graphTweet.path("legacy").path("full_text").asText());
+
+				favorite.setUrl(postPageUri.build(favorite.getAuthorHandle(), favorite.getId()));
+				favorite.setEmbeddedUrl(postEmbeddedPageUri.build(favorite.getId()));
+			} else if ("TimelineTimelineCursor".equals(entryType) && "Bottom".equals(entry.path("content").path("cursorType").textValue())) {
+				nextPageCursor = entry.path("content").path("value").textValue();
+			}
+		}
+		return nextPageCursor;
+	}
+
+}